@@ -0,0 +1,141 @@
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class evaluates a list of candidates on a ForkJoinPool. The list is
+ * split in halves down to LEAF_SIZE candidates, and each leaf runs on the
+ * FrequentnessEngine of its worker with its own map of expected supports,
+ * splitting a candidate into partitions if the options ask for it.
+ * The candidates of a batch of a LevelCounter take their transactions from
+ * it instead of the vertical index.
+ * The confidences and expected supports are written by index, so the caller
+ * can merge them in the order of the candidates.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see wPFIApriori
+ */
+class CandidateEvaluation extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  static final int LEAF_SIZE = 16;
+
+  private final UncertainDatabase database;
+  private final wPFIOptions options;
+  private final ArrayList<wPFIItemset> candidates;
+  private final double[] weights;
+  private final double threshold;
+  private final int minsup;
+  private final int partitions;
+  private final LevelCounter counter;
+  private final double[] confidences;
+  private final double[] supports;
+  private final int from;
+  private final int to;
+
+  /**
+   * Constructor
+   *
+   * @param candidates  the candidates
+   * @param weights     the weight of each candidate
+   * @param partitions  the number of partitions of each candidate
+   * @param confidences receives the confidence of each candidate
+   * @param supports    receives the expected support of each candidate
+   */
+  public CandidateEvaluation(
+    UncertainDatabase database,
+    wPFIOptions options,
+    ArrayList<wPFIItemset> candidates,
+    double[] weights,
+    double threshold,
+    int minsup,
+    int partitions,
+    double[] confidences,
+    double[] supports
+  ) {
+    this(database, options, candidates, weights, threshold, minsup, partitions, null, confidences, supports, 0,
+        candidates.size());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param counter the batch of candidates to evaluate, with their
+   *                transactions
+   */
+  public CandidateEvaluation(
+    UncertainDatabase database,
+    wPFIOptions options,
+    ArrayList<wPFIItemset> candidates,
+    double[] weights,
+    double threshold,
+    int minsup,
+    int partitions,
+    LevelCounter counter,
+    double[] confidences,
+    double[] supports
+  ) {
+    this(database, options, candidates, weights, threshold, minsup, partitions, counter, confidences, supports,
+        counter.getFrom(), counter.getTo());
+  }
+
+  private CandidateEvaluation(
+    UncertainDatabase database,
+    wPFIOptions options,
+    ArrayList<wPFIItemset> candidates,
+    double[] weights,
+    double threshold,
+    int minsup,
+    int partitions,
+    LevelCounter counter,
+    double[] confidences,
+    double[] supports,
+    int from,
+    int to
+  ) {
+    this.database = database;
+    this.options = options;
+    this.candidates = candidates;
+    this.weights = weights;
+    this.threshold = threshold;
+    this.minsup = minsup;
+    this.partitions = partitions;
+    this.counter = counter;
+    this.confidences = confidences;
+    this.supports = supports;
+    this.from = from;
+    this.to = to;
+  }
+
+  @Override
+  protected void compute() {
+    if (to - from <= LEAF_SIZE) {
+      SupportCache supportDict = new SupportCache();
+      FrequentnessEngine engine = FrequentnessEngine.get();
+
+      for (int i = from; i < to; i++) {
+        wPFIItemset candidate = candidates.get(i);
+
+        if (counter == null) {
+          confidences[i] = wPFIApriori.confidence(supportDict, database, options, candidate, weights[i], threshold,
+              minsup, partitions);
+        } else {
+          int[] tids = engine.tids(database.size());
+          double[] products = engine.products(database.size());
+          int found = counter.copy(i, tids, products);
+          confidences[i] = wPFIApriori.confidence(supportDict, database, options, candidate, weights[i], threshold,
+              minsup, partitions, tids, products, found);
+        }
+        supports[i] = supportDict.get(candidate);
+      }
+      return;
+    }
+
+    int middle = (from + to) >>> 1;
+    invokeAll(
+        new CandidateEvaluation(database, options, candidates, weights, threshold, minsup, partitions, counter,
+            confidences, supports, from, middle),
+        new CandidateEvaluation(database, options, candidates, weights, threshold, minsup, partitions, counter,
+            confidences, supports, middle, to));
+  }
+}
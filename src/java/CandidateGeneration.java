@@ -0,0 +1,199 @@
+import java.util.HashSet;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class generates the candidates of a level from the wPFI of the
+ * previous one, written as sequences of item ranks, as in
+ * wPFIAprioriGenerate. On a ForkJoinPool, the sequences are split in halves
+ * down to LEAF_SIZE of them, each leaf generates into its own set with its
+ * own buffers, and the sets are merged on the way back up.
+ *
+ * The workers only read supportDict, so every expected support the
+ * probability model reads must be in it before the generation starts. The
+ * model reads the wPFI of the previous level and the single items only.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see wPFIApriori
+ * @see ItemsetTrie
+ */
+class CandidateGeneration extends RecursiveTask<HashSet<wPFIItemset>> {
+  private static final long serialVersionUID = 1L;
+
+  static final int LEAF_SIZE = 64;
+
+  private final SupportCache supportDict;
+  private final UncertainDatabase database;
+  private final double[] weightTable;
+  private final int[] order;
+  private final boolean[] inI_;
+  private final int[][] sequences;
+  private final ItemsetTrie trie;
+  private final boolean useProbabilityModel;
+  private final double mu_;
+  private final double threshold;
+  private final double alpha;
+  private final int from;
+  private final int to;
+
+  /**
+   * Constructor
+   *
+   * @param order     the dense ids of the items by rank
+   * @param inI_      whether each item is in an itemset of the previous level
+   * @param sequences the ranks of the items of each itemset of the previous
+   *                  level, in lexicographic order
+   * @param count     the number of sequences
+   * @param trie      the trie of the sequences
+   */
+  public CandidateGeneration(
+    SupportCache supportDict,
+    UncertainDatabase database,
+    double[] weightTable,
+    int[] order,
+    boolean[] inI_,
+    int[][] sequences,
+    int count,
+    ItemsetTrie trie,
+    boolean useProbabilityModel,
+    double mu_,
+    double threshold,
+    double alpha
+  ) {
+    this.supportDict = supportDict;
+    this.database = database;
+    this.weightTable = weightTable;
+    this.order = order;
+    this.inI_ = inI_;
+    this.sequences = sequences;
+    this.trie = trie;
+    this.useProbabilityModel = useProbabilityModel;
+    this.mu_ = mu_;
+    this.threshold = threshold;
+    this.alpha = alpha;
+    this.from = 0;
+    this.to = count;
+  }
+
+  private CandidateGeneration(CandidateGeneration parent, int from, int to) {
+    this.supportDict = parent.supportDict;
+    this.database = parent.database;
+    this.weightTable = parent.weightTable;
+    this.order = parent.order;
+    this.inI_ = parent.inI_;
+    this.sequences = parent.sequences;
+    this.trie = parent.trie;
+    this.useProbabilityModel = parent.useProbabilityModel;
+    this.mu_ = parent.mu_;
+    this.threshold = parent.threshold;
+    this.alpha = parent.alpha;
+    this.from = from;
+    this.to = to;
+  }
+
+  @Override
+  protected HashSet<wPFIItemset> compute() {
+    if (to - from <= LEAF_SIZE) {
+      HashSet<wPFIItemset> candidateK = new HashSet<wPFIItemset>();
+      generate(candidateK);
+      return candidateK;
+    }
+
+    int middle = (from + to) >>> 1;
+    CandidateGeneration left = new CandidateGeneration(this, from, middle);
+    CandidateGeneration right = new CandidateGeneration(this, middle, to);
+
+    right.fork();
+    HashSet<wPFIItemset> candidateK = left.compute();
+    HashSet<wPFIItemset> rightCandidates = right.join();
+
+    if (rightCandidates.size() > candidateK.size()) {
+      rightCandidates.addAll(candidateK);
+      return rightCandidates;
+    }
+    candidateK.addAll(rightCandidates);
+    return candidateK;
+  }
+
+  /**
+   * Generate the candidates of the sequences of this task on the calling
+   * thread.
+   *
+   * @param candidateK receives the candidates
+   */
+  public void generate(HashSet<wPFIItemset> candidateK) {
+    int size = trie.getDepth();
+    int[] items = new int[size];
+    int[] extended = new int[size + 1];
+    int[] split = new int[size];
+
+    for (int s = from; s < to; s++) {
+      for (int i = 0; i < size; i++)
+        items[i] = order[sequences[s][i]];
+      wPFIItemset candidate = wPFIItemset.of(items, size);
+      double argmin = weightTable[items[size - 1]];
+      System.arraycopy(sequences[s], 0, extended, 0, size);
+
+      for (int r = sequences[s][size - 1] + 1; r < order.length; r++) {
+        int item = order[r];
+
+        if (!inI_[item] && weightTable[item] >= argmin)
+          continue;
+
+        // The items come by decreasing weight, so the weight only decreases.
+        double weight = wPFIApriori.itemsetWeight(weightTable, candidate, item);
+        if (weight < threshold)
+          break;
+
+        extended[size] = r;
+        boolean pruned = false;
+        for (int i = size - 1; i >= 0 && weightTable[items[i]] < weight && !pruned; i--)
+          pruned = !trie.containsWithout(extended, i);
+        if (pruned)
+          continue;
+
+        if (useProbabilityModel && !passesAlgorithm3(candidate, items, extended, item, split))
+          continue;
+        candidateK.add(candidate.with(item));
+      }
+    }
+  }
+
+  /**
+   * Check the conditions of Algorithm 3 on every split of a candidate into an
+   * itemset X of the previous level and an item i, as the original
+   * generation joined each X with each item of I_ and each lighter item. The
+   * candidate is kept if any split passes.
+   *
+   * @param candidate the itemset of the sequence
+   * @param items     the dense ids of the sequence, by rank
+   * @param extended  the ranks of the sequence and of the item
+   * @param item      the dense id of the added item
+   * @param split     receives the items of X
+   * @return true if a split passes, otherwise false.
+   */
+  private boolean passesAlgorithm3(wPFIItemset candidate, int[] items, int[] extended, int item, int[] split) {
+    int size = items.length;
+
+    if (wPFIApriori.conditionAlgorithm3(supportDict, database, candidate, item, mu_, alpha))
+      return true;
+
+    for (int i = size - 1; i >= 0; i--) {
+      int left = items[i];
+
+      // left is in an itemset of the previous level, so it is in I_.
+      if (!trie.containsWithout(extended, i))
+        continue;
+
+      for (int j = 0, k = 0; j < size; j++) {
+        if (j != i)
+          split[k++] = items[j];
+      }
+      split[size - 1] = item;
+
+      if (wPFIApriori.conditionAlgorithm3(supportDict, database, wPFIItemset.of(split, size), left, mu_, alpha))
+        return true;
+    }
+    return false;
+  }
+}
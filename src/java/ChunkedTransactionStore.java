@@ -0,0 +1,226 @@
+import java.util.Arrays;
+
+/**
+ * This class stores the transactions of an uncertain database in a compact
+ * form. The item ids and the existential probabilities of all transactions are
+ * appended to fixed-size chunks of primitive arrays, so loading a database of
+ * any size never copies more than one chunk at a time.
+ *
+ * The items of a transaction are sorted by id and distinct.
+ *
+ * In quantized mode a probability is kept as a one-byte code into a table of
+ * up to 256 levels instead of a double. If a database has more distinct
+ * probabilities, the store goes back to doubles.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see UncertainDatabase
+ * @see TransactionStore
+ */
+class ChunkedTransactionStore implements TransactionStore {
+  /**
+   * The number of entries per chunk is 2^CHUNK_BITS.
+   */
+  static final int CHUNK_BITS = 16;
+  static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private int[][] itemChunks = new int[16][];
+  private double[][] probabilityChunks = new double[16][];
+  private byte[][] codeChunks = null;
+  private ProbabilityLevels levels = null;
+  private long[] offsets = new long[1024];
+  private int size = 0;
+  private long entryCount = 0;
+
+  private long[] sortKeys = new long[64];
+
+  /**
+   * Constructor
+   */
+  public ChunkedTransactionStore() {
+    this(false);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param quantized whether probabilities are kept as one-byte codes
+   */
+  public ChunkedTransactionStore(boolean quantized) {
+    if (quantized) {
+      codeChunks = new byte[16][];
+      levels = new ProbabilityLevels();
+      probabilityChunks = null;
+    }
+  }
+
+  /**
+   * Check if the probabilities are kept as one-byte codes.
+   *
+   * @return true if quantized, otherwise false.
+   */
+  public boolean isQuantized() {
+    return codeChunks != null;
+  }
+
+  /**
+   * Get the lookup table of the codes.
+   *
+   * @return the levels, or null if the store is not quantized.
+   */
+  public ProbabilityLevels getLevels() {
+    return levels;
+  }
+
+  /**
+   * Get the probability code at a position of a quantized store.
+   *
+   * @param position the position of the entry
+   * @return byte
+   */
+  public byte code(long position) {
+    return codeChunks[(int) (position >>> CHUNK_BITS)][(int) (position & CHUNK_MASK)];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public long entryCount() {
+    return entryCount;
+  }
+
+  @Override
+  public long start(int tid) {
+    return offsets[tid];
+  }
+
+  @Override
+  public long end(int tid) {
+    return offsets[tid + 1];
+  }
+
+  @Override
+  public int item(long position) {
+    return itemChunks[(int) (position >>> CHUNK_BITS)][(int) (position & CHUNK_MASK)];
+  }
+
+  @Override
+  public double probability(long position) {
+    if (codeChunks != null)
+      return levels.level(code(position));
+    return probabilityChunks[(int) (position >>> CHUNK_BITS)][(int) (position & CHUNK_MASK)];
+  }
+
+  /**
+   * Replace every item id by its dense id. The dense ids keep the order of the
+   * ids, so the transactions stay sorted.
+   *
+   * @param dictionary the dictionary of the items
+   */
+  public void encodeItems(ItemDictionary dictionary) {
+    for (long position = 0; position < entryCount; position += CHUNK_SIZE) {
+      int[] chunk = itemChunks[(int) (position >>> CHUNK_BITS)];
+      int length = (int) Math.min(CHUNK_SIZE, entryCount - position);
+
+      for (int i = 0; i < length; i++)
+        chunk[i] = dictionary.denseId(chunk[i]);
+    }
+  }
+
+  /**
+   * Append a transaction. The items are sorted by id, and only the first
+   * occurrence of a repeated item is kept.
+   *
+   * @param items         the item ids
+   * @param probabilities the existential probabilities of the items
+   * @param length        the number of items
+   * @return the number of distinct items appended.
+   */
+  public int add(int[] items, double[] probabilities, int length) {
+    if (size + 1 == offsets.length)
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+
+    if (isStrictlyIncreasing(items, length)) {
+      for (int i = 0; i < length; i++)
+        append(items[i], probabilities[i]);
+    } else {
+      if (sortKeys.length < length)
+        sortKeys = new long[Math.max(length, sortKeys.length * 2)];
+
+      for (int i = 0; i < length; i++)
+        sortKeys[i] = ((long) items[i] << 32) | i;
+      Arrays.sort(sortKeys, 0, length);
+
+      for (int i = 0; i < length; i++) {
+        int item = (int) (sortKeys[i] >> 32);
+
+        if (i > 0 && item == (int) (sortKeys[i - 1] >> 32))
+          continue;
+        append(item, probabilities[(int) sortKeys[i]]);
+      }
+    }
+
+    offsets[++size] = entryCount;
+    return (int) (offsets[size] - offsets[size - 1]);
+  }
+
+  private void append(int item, double probability) {
+    int chunk = (int) (entryCount >>> CHUNK_BITS);
+    int index = (int) (entryCount & CHUNK_MASK);
+
+    int code = codeChunks == null ? -1 : levels.code(probability);
+    if (codeChunks != null && code < 0)
+      dequantize();
+
+    if (index == 0) {
+      if (chunk == itemChunks.length) {
+        itemChunks = Arrays.copyOf(itemChunks, chunk * 2);
+        if (codeChunks != null)
+          codeChunks = Arrays.copyOf(codeChunks, chunk * 2);
+        else
+          probabilityChunks = Arrays.copyOf(probabilityChunks, chunk * 2);
+      }
+      itemChunks[chunk] = new int[CHUNK_SIZE];
+      if (codeChunks != null)
+        codeChunks[chunk] = new byte[CHUNK_SIZE];
+      else
+        probabilityChunks[chunk] = new double[CHUNK_SIZE];
+    }
+
+    itemChunks[chunk][index] = item;
+    if (codeChunks != null)
+      codeChunks[chunk][index] = (byte) code;
+    else
+      probabilityChunks[chunk][index] = probability;
+    entryCount++;
+  }
+
+  /**
+   * Replace the codes by the probabilities they stand for, once a database
+   * has more distinct probabilities than there are codes.
+   */
+  private void dequantize() {
+    probabilityChunks = new double[itemChunks.length][];
+
+    for (int chunk = 0; chunk < codeChunks.length && codeChunks[chunk] != null; chunk++) {
+      probabilityChunks[chunk] = new double[CHUNK_SIZE];
+
+      for (int i = 0; i < CHUNK_SIZE; i++)
+        probabilityChunks[chunk][i] = levels.level(codeChunks[chunk][i]);
+    }
+    codeChunks = null;
+    levels = null;
+  }
+
+  private static boolean isStrictlyIncreasing(int[] items, int length) {
+    for (int i = 1; i < length; i++) {
+      if (items[i] <= items[i - 1])
+        return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,94 @@
+import java.util.Arrays;
+
+/**
+ * This class checks the convolution of the FrequentnessEngine against its
+ * dynamic programming on the bundled datasets. For each dataset and minsup
+ * ratio, it computes the frequentness probability of every single item and of
+ * every pair of the PAIR_ITEMS items of largest expected support with both
+ * methods, without the early exit, and prints the largest absolute
+ * difference. It exits with status 1 if a difference is above
+ * FrequentnessEngine.NUMERICAL_ERROR.
+ *
+ * java FrequentnessAccuracyCheck [transactions] [seed]
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see FrequentnessEngine
+ */
+public class FrequentnessAccuracyCheck {
+  private static final String[] DATASETS = { "connect", "accidents", "T40I10D100K" };
+  private static final double[] RATIOS = { 0.05, 0.2, 0.5 };
+  private static final int PAIR_ITEMS = 20;
+
+  public static void main(String[] args) throws Exception {
+    int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+    double worst = 0;
+
+    for (String dataset : DATASETS) {
+      UncertainDatabase database = new UncertainDatabase();
+      database.setSeed(seed);
+      database.setMaxSize(transactions);
+      database.loadFileMapped("./../../data/" + dataset + ".dat", false, Runtime.getRuntime().availableProcessors());
+
+      VerticalIndex index = database.getVerticalIndex();
+      int itemCount = database.getDictionary().size();
+      int[] top = topItems(index, itemCount, Math.min(PAIR_ITEMS, itemCount));
+
+      for (double ratio : RATIOS) {
+        int minsup = Math.max(1, (int) Math.round(ratio * database.size()));
+        double maxError = 0;
+        int checked = 0;
+
+        for (int item = 0; item < itemCount; item++) {
+          maxError = Math.max(maxError, error(database, wPFIItemset.of(item), minsup));
+          checked++;
+        }
+        for (int i = 0; i < top.length; i++) {
+          for (int j = i + 1; j < top.length; j++) {
+            int[] pair = { Math.min(top[i], top[j]), Math.max(top[i], top[j]) };
+            maxError = Math.max(maxError, error(database, wPFIItemset.of(pair, 2), minsup));
+            checked++;
+          }
+        }
+
+        System.out.printf("%s: %d transactions, minsup %d, %d itemsets, max error %.3e\n", dataset,
+            database.size(), minsup, checked, maxError);
+        worst = Math.max(worst, maxError);
+      }
+    }
+
+    System.out.printf("Max error: %.3e\n", worst);
+    if (worst > FrequentnessEngine.NUMERICAL_ERROR)
+      System.exit(1);
+  }
+
+  /**
+   * Get the absolute difference of the two methods on an itemset.
+   */
+  private static double error(UncertainDatabase database, wPFIItemset itemset, int minsup) {
+    FrequentnessEngine engine = FrequentnessEngine.get();
+    int[] tids = engine.tids(database.size());
+    double[] products = engine.products(database.size());
+    int found = wPFIApriori.supportList(database, itemset, tids, products);
+
+    double dp = engine.frequentness(tids, products, found, database.size(), minsup, 0);
+    double fft = engine.frequentnessConvolution(products, found, minsup);
+    return Math.abs(dp - fft);
+  }
+
+  /**
+   * Get the count items of largest expected support.
+   */
+  private static int[] topItems(VerticalIndex index, int itemCount, int count) {
+    Integer[] items = new Integer[itemCount];
+    for (int item = 0; item < itemCount; item++)
+      items[item] = item;
+    Arrays.sort(items, (a, b) -> Double.compare(index.expectedSupport(b), index.expectedSupport(a)));
+
+    int[] top = new int[count];
+    for (int i = 0; i < count; i++)
+      top[i] = items[i];
+    return top;
+  }
+}
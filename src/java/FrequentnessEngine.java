@@ -0,0 +1,605 @@
+import java.util.Arrays;
+
+/**
+ * This class computes the frequentness probability of an itemset, the
+ * probability that its support is at least minsup, with the dynamic
+ * programming of the paper.
+ *
+ * The table P[i][j] = Pr(support in the first j transactions >= i) is
+ * computed column by column in a single vector of minsup + 1 values, updated
+ * from the last row down, so every value is computed as in the full table.
+ * The early exit of the full table is kept: the computation stops when
+ * P[i - 1][databaseSize - minsup + i] drops below the threshold.
+ *
+ * Only the transactions that contain the itemset are visited: a transaction
+ * where its probability is zero leaves every value of the column as it is,
+ * so only the early exit is checked for it. An itemset contained in fewer
+ * than minsup transactions is rejected at once.
+ *
+ * For large minsup * databaseSize, the whole support distribution is
+ * computed instead as the product of the polynomials (1 - p + p x) of the
+ * transactions that contain the itemset, multiplied by divide and conquer
+ * with the FFT. This is exact up to rounding, in O(n log^2 n) for n
+ * transactions, but has no early exit.
+ *
+ * The frequentness probability can also be approximated in O(n) from the
+ * moments of the support, with a bound on the error of the approximation:
+ * the Normal approximation with the Berry-Esseen bound, the Poisson
+ * approximation with the Le Cam bound, and the refined Normal
+ * approximation, bounded by the Normal bound plus its distance to the
+ * Normal approximation.
+ *
+ * Before any of these, a candidate can be rejected by the Chernoff or the
+ * Cantelli upper bound on its frequentness probability.
+ *
+ * Each thread has its own engine, and the arrays of an engine are reused
+ * from one itemset to the next.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see wPFIApriori
+ */
+class FrequentnessEngine {
+  /**
+   * The ways to compute the frequentness probability.
+   */
+  enum Method {
+    AUTO,
+    DYNAMIC_PROGRAMMING,
+    CONVOLUTION
+  }
+
+  /**
+   * The approximations of the frequentness probability.
+   */
+  enum Approximation {
+    NONE,
+    NORMAL,
+    POISSON,
+    REFINED_NORMAL
+  }
+
+  /**
+   * The constant of the Berry-Esseen bound for sums of independent, not
+   * identically distributed variables (Shevtsova, 2010).
+   */
+  static final double BERRY_ESSEEN = 0.5600;
+
+  /**
+   * A bound on the rounding error of the computed distribution functions.
+   */
+  static final double NUMERICAL_ERROR = 1e-12;
+
+  private static final double[] LANCZOS = {
+    0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+    771.32342877765313, -176.61502916214059, 12.507343278686905,
+    -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7
+  };
+
+  /**
+   * AUTO uses the convolution from this value of minsup * databaseSize.
+   */
+  static final long CONVOLUTION_WORK = 1L << 24;
+
+  /**
+   * Products of up to DIRECT_SIZE polynomials are computed directly, and
+   * two polynomials are multiplied directly up to DIRECT_WORK operations.
+   */
+  static final int DIRECT_SIZE = 64;
+  static final long DIRECT_WORK = 1 << 14;
+
+  private static final ThreadLocal<FrequentnessEngine> ENGINES = ThreadLocal.withInitial(FrequentnessEngine::new);
+
+  private double[] vector = new double[0];
+  private double[] probabilities = new double[0];
+  private double[] products = new double[0];
+  private int[] tids = new int[0];
+  private int[] positions = new int[0];
+  private double[] values = new double[0];
+  private double[] cosTable = new double[0];
+  private double[] sinTable = new double[0];
+
+  /**
+   * Get the engine of the current thread.
+   *
+   * @return a FrequentnessEngine
+   */
+  static FrequentnessEngine get() {
+    return ENGINES.get();
+  }
+
+  /**
+   * Get an array of at least length zeros, for the probabilities of an
+   * itemset in every transaction.
+   *
+   * @param length the number of transactions
+   * @return double[]
+   */
+  double[] probabilities(int length) {
+    if (probabilities.length < length)
+      probabilities = new double[length];
+    else
+      Arrays.fill(probabilities, 0, length, 0);
+    return probabilities;
+  }
+
+  /**
+   * Get an array of at least length transaction indices, for the
+   * intersection of the lists of a vertical index.
+   *
+   * @param length the number of transactions
+   * @return int[]
+   */
+  int[] tids(int length) {
+    if (tids.length < length)
+      tids = new int[length];
+    return tids;
+  }
+
+  /**
+   * Get an array of at least length positions, for the positions in the list
+   * of an item of the transactions found by the intersection.
+   *
+   * @param length the number of transactions
+   * @return int[]
+   */
+  int[] positions(int length) {
+    if (positions.length < length)
+      positions = new int[length];
+    return positions;
+  }
+
+  /**
+   * Get an array of at least length values, for the probabilities found by
+   * the intersection of the lists of a vertical index.
+   *
+   * @param length the number of transactions
+   * @return double[]
+   */
+  double[] products(int length) {
+    if (products.length < length)
+      products = new double[length];
+    return products;
+  }
+
+  /**
+   * Calculate the probability that the support of an itemset is at least
+   * minsup.
+   *
+   * @param tids          the sorted indices of the transactions that contain
+   *                      the itemset
+   * @param products      the probability of the itemset in each of them
+   * @param found         the number of these transactions
+   * @param databaseSize  the number of transactions
+   * @param minsup        the minimum support, at most databaseSize
+   * @param threshold     the threshold of the early exit
+   * @return the frequentness probability, or 0 if it is below the threshold.
+   */
+  public double frequentness(int[] tids, double[] products, int found, int databaseSize, int minsup, double threshold) {
+    if (found < minsup)
+      return 0.0;
+
+    if (vector.length < minsup + 1)
+      vector = new double[minsup + 1];
+
+    double[] P = vector;
+    Arrays.fill(P, 0, minsup + 1, 0);
+    P[0] = 1.0;
+    SupportKernel kernel = SupportKernel.get();
+
+    int firstCheck = databaseSize - minsup;
+    int checked = firstCheck;
+
+    for (int k = 0; k < found; k++) {
+      int j = tids[k] + 1;
+      double probability = products[k];
+
+      for (; checked < j - 1; checked++) {
+        if (P[checked - firstCheck] < threshold)
+          return 0.0;
+      }
+
+      kernel.step(P, Math.min(k + 1, minsup), probability);
+
+      if (j > firstCheck) {
+        checked = j;
+        if (P[j - firstCheck - 1] < threshold)
+          return 0.0;
+      }
+    }
+
+    for (; checked < databaseSize; checked++) {
+      if (P[checked - firstCheck] < threshold)
+        return 0.0;
+    }
+    return P[minsup];
+  }
+
+  /**
+   * Calculate the probability that the support of an itemset is at least
+   * minsup with the given method.
+   *
+   * @param tids          the sorted indices of the transactions that contain
+   *                      the itemset
+   * @param products      the probability of the itemset in each of them
+   * @param found         the number of these transactions
+   * @param databaseSize  the number of transactions
+   * @param minsup        the minimum support, at most databaseSize
+   * @param threshold     the threshold of the early exit of the dynamic
+   *                      programming
+   * @param method        the method
+   * @return the frequentness probability, or 0 if the dynamic programming
+   *         found it below the threshold.
+   */
+  public double frequentness(
+    int[] tids,
+    double[] products,
+    int found,
+    int databaseSize,
+    int minsup,
+    double threshold,
+    Method method
+  ) {
+    if (method == Method.CONVOLUTION
+        || method == Method.AUTO && (long) minsup * databaseSize >= CONVOLUTION_WORK)
+      return frequentnessConvolution(products, found, minsup);
+    return frequentness(tids, products, found, databaseSize, minsup, threshold);
+  }
+
+  /**
+   * Calculate the probability that the support of an itemset is at least
+   * minsup from its whole support distribution.
+   *
+   * @param probabilities the probability of the itemset in each transaction,
+   *                      where the zeros may be left out
+   * @param count         the number of probabilities
+   * @param minsup        the minimum support
+   * @return the frequentness probability.
+   */
+  public double frequentnessConvolution(double[] probabilities, int count, int minsup) {
+    if (values.length < count)
+      values = new double[count];
+
+    int nonzero = 0;
+    int certain = 0;
+
+    for (int j = 0; j < count; j++) {
+      if (probabilities[j] == 1)
+        certain++;
+      else if (probabilities[j] != 0)
+        values[nonzero++] = probabilities[j];
+    }
+
+    int needed = minsup - certain;
+    if (needed <= 0)
+      return 1.0;
+    if (needed > nonzero)
+      return 0.0;
+
+    double[] distribution = product(values, 0, nonzero);
+    double tail = 0;
+
+    for (int k = nonzero; k >= needed; k--)
+      tail += distribution[k];
+    return Math.max(0, Math.min(1, tail));
+  }
+
+  /**
+   * Get the coefficients of the product of (1 - p + p x) for the values
+   * from index from to index to.
+   */
+  private double[] product(double[] values, int from, int to) {
+    if (to - from <= DIRECT_SIZE) {
+      double[] distribution = new double[to - from + 1];
+      distribution[0] = 1;
+
+      for (int j = from; j < to; j++) {
+        double probability = values[j];
+
+        for (int i = j - from + 1; i >= 1; i--)
+          distribution[i] = distribution[i - 1] * probability + distribution[i] * (1 - probability);
+        distribution[0] *= 1 - probability;
+      }
+      return distribution;
+    }
+
+    int middle = (from + to) >>> 1;
+    return multiply(product(values, from, middle), product(values, middle, to));
+  }
+
+  /**
+   * Multiply two polynomials, directly if they are small and with the FFT
+   * otherwise.
+   *
+   * @param a the coefficients of the first polynomial
+   * @param b the coefficients of the second polynomial
+   * @return the coefficients of the product.
+   */
+  double[] multiply(double[] a, double[] b) {
+    double[] result = new double[a.length + b.length - 1];
+
+    if ((long) a.length * b.length <= DIRECT_WORK) {
+      for (int i = 0; i < a.length; i++) {
+        for (int j = 0; j < b.length; j++)
+          result[i + j] += a[i] * b[j];
+      }
+      return result;
+    }
+
+    int size = Integer.highestOneBit(result.length - 1) << 1;
+    double[] re = new double[size];
+    double[] im = new double[size];
+
+    System.arraycopy(a, 0, re, 0, a.length);
+    System.arraycopy(b, 0, im, 0, b.length);
+    fft(re, im, size, false);
+
+    // With x = a + i b, X(k) X(k) - conj(X(-k)) conj(X(-k)) = 4 i A(k) B(k).
+    double[] productRe = new double[size];
+    double[] productIm = new double[size];
+
+    for (int k = 0; k < size; k++) {
+      int m = (size - k) & (size - 1);
+      double xRe = re[k] * re[k] - im[k] * im[k];
+      double xIm = 2 * re[k] * im[k];
+      double yRe = re[m] * re[m] - im[m] * im[m];
+      double yIm = -2 * re[m] * im[m];
+
+      productRe[k] = (xIm - yIm) / 4;
+      productIm[k] = -(xRe - yRe) / 4;
+    }
+    fft(productRe, productIm, size, true);
+
+    for (int i = 0; i < result.length; i++)
+      result[i] = Math.max(0, productRe[i] / size);
+    return result;
+  }
+
+  /**
+   * The iterative radix-2 FFT, in place.
+   */
+  private void fft(double[] re, double[] im, int size, boolean inverse) {
+    if (cosTable.length < size / 2) {
+      cosTable = new double[size / 2];
+      sinTable = new double[size / 2];
+
+      for (int k = 0; k < size / 2; k++) {
+        cosTable[k] = Math.cos(2 * Math.PI * k / size);
+        sinTable[k] = Math.sin(2 * Math.PI * k / size);
+      }
+    }
+
+    for (int i = 1, j = 0; i < size; i++) {
+      int bit = size >> 1;
+      for (; (j & bit) != 0; bit >>= 1)
+        j ^= bit;
+      j ^= bit;
+
+      if (i < j) {
+        double temp = re[i];
+        re[i] = re[j];
+        re[j] = temp;
+        temp = im[i];
+        im[i] = im[j];
+        im[j] = temp;
+      }
+    }
+
+    for (int length = 2; length <= size; length <<= 1) {
+      int half = length >> 1;
+      int stride = 2 * cosTable.length / length;
+
+      for (int start = 0; start < size; start += length) {
+        for (int k = 0; k < half; k++) {
+          double wRe = cosTable[k * stride];
+          double wIm = inverse ? sinTable[k * stride] : -sinTable[k * stride];
+          int even = start + k;
+          int odd = even + half;
+
+          double oddRe = re[odd] * wRe - im[odd] * wIm;
+          double oddIm = re[odd] * wIm + im[odd] * wRe;
+          re[odd] = re[even] - oddRe;
+          im[odd] = im[even] - oddIm;
+          re[even] += oddRe;
+          im[even] += oddIm;
+        }
+      }
+    }
+  }
+
+  /**
+   * Calculate the variance of the support of an itemset.
+   *
+   * @param probabilities the probability of the itemset in each transaction,
+   *                      where the zeros may be left out
+   * @param count         the number of probabilities
+   * @return double
+   */
+  public double variance(double[] probabilities, int count) {
+    double variance = 0;
+
+    for (int j = 0; j < count; j++)
+      variance += probabilities[j] * (1 - probabilities[j]);
+    return variance;
+  }
+
+  /**
+   * The Chernoff upper bound on the probability that a support of expected
+   * value mu is at least minsup: e^(minsup - mu) (mu / minsup)^minsup.
+   *
+   * @param mu     the expected support
+   * @param minsup the minimum support
+   * @return the bound, or 1 if minsup is not above mu.
+   */
+  static double chernoffBound(double mu, int minsup) {
+    if (minsup <= mu)
+      return 1.0;
+    if (mu <= 0)
+      return 0.0;
+    return Math.exp(minsup - mu + minsup * Math.log(mu / minsup));
+  }
+
+  /**
+   * The Cantelli upper bound on the probability that a support of expected
+   * value mu and variance variance is at least minsup.
+   *
+   * @param mu       the expected support
+   * @param variance the variance of the support
+   * @param minsup   the minimum support
+   * @return the bound, or 1 if minsup is not above mu.
+   */
+  static double cantelliBound(double mu, double variance, int minsup) {
+    if (minsup <= mu)
+      return 1.0;
+
+    double distance = minsup - mu;
+    return variance / (variance + distance * distance);
+  }
+
+  /**
+   * Approximate the probability that the support of an itemset is at least
+   * minsup.
+   *
+   * @param probabilities the probability of the itemset in each transaction,
+   *                      where the zeros may be left out
+   * @param count         the number of probabilities
+   * @param minsup        the minimum support
+   * @param approximation the approximation, not NONE
+   * @return the approximate probability and its error bound.
+   */
+  public FrequentnessEstimate approximate(
+    double[] probabilities,
+    int count,
+    int minsup,
+    Approximation approximation
+  ) {
+    double mu = 0;
+    double variance = 0;
+    double skewness = 0;
+    double absoluteMoment = 0;
+    double squares = 0;
+
+    for (int j = 0; j < count; j++) {
+      double p = probabilities[j];
+      double q = 1 - p;
+
+      mu += p;
+      variance += p * q;
+      skewness += p * q * (q - p);
+      absoluteMoment += p * q * (p * p + q * q);
+      squares += p * p;
+    }
+
+    if (minsup <= 0)
+      return new FrequentnessEstimate(1.0, 0);
+
+    if (approximation == Approximation.POISSON) {
+      if (mu == 0)
+        return new FrequentnessEstimate(0.0, 0);
+      return new FrequentnessEstimate(regularizedGammaP(minsup, mu),
+          Math.min(1, 1 / mu) * squares + NUMERICAL_ERROR);
+    }
+
+    // Every probability is 0 or 1, the support is mu.
+    if (variance == 0)
+      return new FrequentnessEstimate(mu >= minsup - 0.5 ? 1.0 : 0.0, 0);
+
+    double sigma = Math.sqrt(variance);
+    double x = (minsup - 0.5 - mu) / sigma;
+    double normal = 1 - phi(x);
+    double bound = BERRY_ESSEEN * absoluteMoment / (variance * sigma) + NUMERICAL_ERROR;
+
+    if (approximation == Approximation.NORMAL)
+      return new FrequentnessEstimate(normal, bound);
+
+    double gamma = skewness / (variance * sigma);
+    double refined = normal - gamma * (1 - x * x) * Math.exp(-x * x / 2) / Math.sqrt(2 * Math.PI) / 6;
+    refined = Math.max(0, Math.min(1, refined));
+    return new FrequentnessEstimate(refined, bound + Math.abs(refined - normal));
+  }
+
+  /**
+   * The standard Normal distribution function.
+   */
+  static double phi(double x) {
+    return x < 0 ? erfc(-x / Math.sqrt(2)) / 2 : 1 - erfc(x / Math.sqrt(2)) / 2;
+  }
+
+  /**
+   * The complementary error function for z >= 0, by its Taylor series below
+   * 2.5 and by its continued fraction above.
+   */
+  static double erfc(double z) {
+    if (z < 2.5) {
+      double term = z;
+      double sum = z;
+
+      for (int n = 1; Math.abs(term) > 1e-17 * Math.abs(sum); n++) {
+        term *= -z * z / n;
+        sum += term / (2 * n + 1);
+      }
+      return 1 - 2 / Math.sqrt(Math.PI) * sum;
+    }
+
+    double fraction = z;
+    for (int n = 120; n >= 1; n--)
+      fraction = z + n / 2.0 / fraction;
+    return Math.exp(-z * z) / Math.sqrt(Math.PI) / fraction;
+  }
+
+  /**
+   * The regularized lower incomplete gamma function P(a, x), which is the
+   * probability that a Poisson variable of mean x is at least a.
+   */
+  static double regularizedGammaP(double a, double x) {
+    if (x <= 0)
+      return 0;
+
+    double logPrefix = a * Math.log(x) - x - logGamma(a);
+
+    if (x < a + 1) {
+      double term = 1 / a;
+      double sum = term;
+
+      for (int n = 1; n < 100000 && Math.abs(term) > 1e-17 * sum; n++) {
+        term *= x / (a + n);
+        sum += term;
+      }
+      return Math.min(1, sum * Math.exp(logPrefix));
+    }
+
+    // Lentz's method for the continued fraction of Q(a, x).
+    double tiny = 1e-300;
+    double b = x + 1 - a;
+    double c = 1 / tiny;
+    double d = 1 / b;
+    double h = d;
+
+    for (int n = 1; n < 100000; n++) {
+      double an = -n * (n - a);
+      b += 2;
+      d = an * d + b;
+      d = Math.abs(d) < tiny ? tiny : d;
+      c = b + an / c;
+      c = Math.abs(c) < tiny ? tiny : c;
+      d = 1 / d;
+      double delta = d * c;
+      h *= delta;
+      if (Math.abs(delta - 1) < 1e-16)
+        break;
+    }
+    return Math.max(0, 1 - Math.exp(logPrefix) * h);
+  }
+
+  /**
+   * The logarithm of the gamma function, by the Lanczos approximation.
+   */
+  static double logGamma(double x) {
+    double sum = LANCZOS[0];
+    for (int i = 1; i < LANCZOS.length; i++)
+      sum += LANCZOS[i] / (x - 1 + i);
+
+    double t = x - 0.5 + 7;
+    return 0.5 * Math.log(2 * Math.PI) + (x - 0.5) * Math.log(t) - t + Math.log(sum);
+  }
+}
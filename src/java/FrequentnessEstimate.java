@@ -0,0 +1,45 @@
+/**
+ * This class is an approximate frequentness probability with a bound on its
+ * error: the exact probability is within errorBound of probability.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see FrequentnessEngine
+ */
+class FrequentnessEstimate {
+  private final double probability;
+  private final double errorBound;
+
+  /**
+   * Constructor
+   *
+   * @param probability the approximate probability
+   * @param errorBound  the bound on the error of the probability
+   */
+  public FrequentnessEstimate(double probability, double errorBound) {
+    this.probability = Math.max(0, Math.min(1, probability));
+    this.errorBound = Math.min(1, errorBound);
+  }
+
+  public double getProbability() {
+    return probability;
+  }
+
+  public double getErrorBound() {
+    return errorBound;
+  }
+
+  /**
+   * Check if the estimate decides whether probability * weight >= threshold,
+   * that is if the whole error interval is on one side of the threshold.
+   *
+   * @param weight    the weight of the itemset
+   * @param threshold the threshold
+   * @return true if the decision is the same for every probability within
+   *         the error bound, otherwise false.
+   */
+  public boolean decides(double weight, double threshold) {
+    return Math.max(0, probability - errorBound) * weight >= threshold
+        || Math.min(1, probability + errorBound) * weight < threshold;
+  }
+}
@@ -0,0 +1,173 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * This class maps the item ids of a transaction file to dense ids 0..n-1 and
+ * back. Dense ids keep the order of the original ids, so sorted transactions
+ * stay sorted after encoding, and per-item data can be kept in plain arrays
+ * indexed by dense id. Items added after loading get the next dense ids.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see UncertainDatabase
+ */
+class ItemDictionary {
+  /**
+   * Original ids are looked up in a table when they span at most
+   * MAX_TABLE_RATIO times the number of items, otherwise by binary search.
+   */
+  private static final int MAX_TABLE_RATIO = 8;
+
+  /**
+   * Items added outside the table, or while the ids are searched, are kept
+   * in a map until there are MIN_REBUILD of them and a quarter of the items,
+   * then the lookup is built again, so an add costs O(1) amortized.
+   */
+  private static final int MIN_REBUILD = 64;
+
+  private int[] rawIds;
+  private int size;
+
+  private int minRawId;
+  private int[] denseIds;
+  private long[] sortedIds;
+  private final HashMap<Integer, Integer> added = new HashMap<>();
+
+  /**
+   * Constructor
+   *
+   * @param rawIds the distinct original ids, sorted in ascending order
+   */
+  public ItemDictionary(int[] rawIds) {
+    this.rawIds = rawIds;
+    size = rawIds.length;
+    buildLookup();
+  }
+
+  /**
+   * Build the dictionary of a set of items.
+   *
+   * @param allItems the items, with their original ids
+   * @return an ItemDictionary
+   */
+  static ItemDictionary of(HashSet<wPFIItem> allItems) {
+    int[] rawIds = new int[allItems.size()];
+    int i = 0;
+
+    for (wPFIItem item : allItems)
+      rawIds[i++] = item.getId();
+    Arrays.sort(rawIds);
+
+    return new ItemDictionary(rawIds);
+  }
+
+  /**
+   * Get the number of items.
+   *
+   * @return int
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the original id of an item.
+   *
+   * @param denseId the dense id of the item
+   * @return int
+   */
+  public int rawId(int denseId) {
+    return rawIds[denseId];
+  }
+
+  /**
+   * Get the dense id of an item.
+   *
+   * @param rawId the original id of the item
+   * @return the dense id, or -1 if the item is not in the dictionary.
+   */
+  public int denseId(int rawId) {
+    if (denseIds != null) {
+      long index = (long) rawId - minRawId;
+      if (index >= 0 && index < denseIds.length)
+        return denseIds[(int) index];
+    } else {
+      int low = 0;
+      int high = sortedIds.length - 1;
+
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int id = (int) (sortedIds[middle] >> 32);
+
+        if (id < rawId)
+          low = middle + 1;
+        else if (id > rawId)
+          high = middle - 1;
+        else
+          return (int) sortedIds[middle];
+      }
+    }
+
+    if (added.isEmpty())
+      return -1;
+    return added.getOrDefault(rawId, -1);
+  }
+
+  /**
+   * Get the dense id of an item, giving it the next dense id if it is new.
+   *
+   * @param rawId the original id of the item
+   * @return the dense id.
+   */
+  public int add(int rawId) {
+    int denseId = denseId(rawId);
+    if (denseId >= 0)
+      return denseId;
+
+    if (size == rawIds.length)
+      rawIds = Arrays.copyOf(rawIds, Math.max(16, size * 2));
+    rawIds[size] = rawId;
+
+    long index = (long) rawId - minRawId;
+    if (denseIds != null && index >= 0 && index < denseIds.length)
+      denseIds[(int) index] = size++;
+    else {
+      added.put(rawId, size++);
+
+      if (added.size() >= Math.max(MIN_REBUILD, size / 4))
+        buildLookup();
+    }
+    return size - 1;
+  }
+
+  private void buildLookup() {
+    added.clear();
+
+    int minId = Integer.MAX_VALUE;
+    int maxId = Integer.MIN_VALUE;
+
+    for (int i = 0; i < size; i++) {
+      minId = Math.min(minId, rawIds[i]);
+      maxId = Math.max(maxId, rawIds[i]);
+    }
+
+    long range = size == 0 ? 0 : (long) maxId - minId + 1;
+    if (range <= (long) MAX_TABLE_RATIO * size + 1024) {
+      minRawId = size == 0 ? 0 : minId;
+      denseIds = new int[(int) range];
+      sortedIds = null;
+      Arrays.fill(denseIds, -1);
+
+      for (int i = 0; i < size; i++)
+        denseIds[rawIds[i] - minRawId] = i;
+    } else {
+      denseIds = null;
+      sortedIds = new long[size];
+
+      for (int i = 0; i < size; i++)
+        sortedIds[i] = ((long) rawIds[i] << 32) | i;
+      Arrays.sort(sortedIds);
+    }
+  }
+}
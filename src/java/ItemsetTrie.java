@@ -0,0 +1,161 @@
+import java.util.Arrays;
+
+/**
+ * This class is a trie of itemsets of the same size, written as sorted
+ * sequences of int keys. It is built level by level from the sorted
+ * sequences, so the children of a node are a sorted range of the next level
+ * and a lookup is one binary search per level.
+ *
+ * wPFIAprioriGenerate uses it to check the subsets of a candidate against the
+ * previous level without building them, and LevelCounter to find the
+ * candidates contained in a transaction.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see wPFIApriori
+ */
+class ItemsetTrie {
+  private final int depth;
+
+  /**
+   * keys[d][n] is the last key of the n-th node of depth d + 1, and the
+   * children of that node are the nodes firstChild[d][n] ..
+   * firstChild[d][n + 1] - 1 of depth d + 2.
+   */
+  private final int[][] keys;
+  private final int[][] firstChild;
+
+  /**
+   * Build the trie of the given sequences.
+   *
+   * @param sequences the distinct sequences, each of depth keys in
+   *                  increasing order, and the sequences in lexicographic
+   *                  order
+   * @param count     the number of sequences
+   * @param depth     the number of keys of each sequence
+   */
+  public ItemsetTrie(int[][] sequences, int count, int depth) {
+    this.depth = depth;
+    keys = new int[depth][];
+    firstChild = new int[depth][];
+    int[] sizes = new int[depth];
+
+    for (int d = 0; d < depth; d++) {
+      keys[d] = new int[count];
+      firstChild[d] = new int[count + 1];
+    }
+
+    for (int s = 0; s < count; s++) {
+      int common = 0;
+      if (s > 0) {
+        while (common < depth && sequences[s][common] == sequences[s - 1][common])
+          common++;
+      }
+
+      for (int d = common; d < depth; d++) {
+        if (d + 1 < depth)
+          firstChild[d][sizes[d]] = sizes[d + 1];
+        keys[d][sizes[d]++] = sequences[s][d];
+      }
+    }
+
+    for (int d = 0; d < depth; d++) {
+      keys[d] = Arrays.copyOf(keys[d], sizes[d]);
+      firstChild[d][sizes[d]] = d + 1 < depth ? sizes[d + 1] : 0;
+    }
+  }
+
+  /**
+   * Get the number of keys of the sequences.
+   *
+   * @return int
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Check if the trie contains a sequence with one key left out.
+   *
+   * @param sequence the keys in increasing order, depth + 1 of them
+   * @param skip     the index of the key to leave out
+   * @return true if the other keys are a sequence of the trie, otherwise
+   *         false.
+   */
+  public boolean containsWithout(int[] sequence, int skip) {
+    int low = 0;
+    int high = keys.length == 0 ? 0 : keys[0].length;
+    int d = 0;
+
+    for (int i = 0; i <= depth; i++) {
+      if (i == skip)
+        continue;
+
+      int node = Arrays.binarySearch(keys[d], low, high, sequence[i]);
+      if (node < 0)
+        return false;
+
+      if (d + 1 < depth) {
+        low = firstChild[d][node];
+        high = firstChild[d][node + 1];
+      }
+      d++;
+    }
+    return true;
+  }
+
+  /**
+   * Find the sequences of the trie contained in a longer sequence, and the
+   * product of the values of their keys in it.
+   *
+   * @param sequence  the keys in increasing order
+   * @param values    the value of each key of the sequence
+   * @param length    the number of keys of the sequence
+   * @param leaves    receives the index of each sequence found, in the order
+   *                  the trie was built from
+   * @param products  receives the product of the values of each sequence
+   *                  found
+   * @return the number of sequences found.
+   */
+  public int containedIn(int[] sequence, double[] values, int length, int[] leaves, double[] products) {
+    if (depth == 0 || length < depth)
+      return 0;
+    return collect(0, 0, keys[0].length, sequence, values, 0, length, 1, leaves, products, 0);
+  }
+
+  private int collect(
+    int d,
+    int low,
+    int high,
+    int[] sequence,
+    double[] values,
+    int from,
+    int length,
+    double product,
+    int[] leaves,
+    double[] products,
+    int found
+  ) {
+    int i = from;
+
+    for (int node = low; node < high && length - i >= depth - d; node++) {
+      int key = keys[d][node];
+
+      while (i < length && sequence[i] < key)
+        i++;
+      if (i == length)
+        break;
+      if (sequence[i] != key)
+        continue;
+
+      if (d + 1 == depth) {
+        leaves[found] = node;
+        products[found++] = product * values[i];
+      } else {
+        found = collect(d + 1, firstChild[d][node], firstChild[d][node + 1], sequence, values, i + 1, length,
+            product * values[i], leaves, products, found);
+      }
+    }
+    return found;
+  }
+}
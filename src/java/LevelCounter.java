@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * This class counts a batch of candidates of the same size in a single pass
+ * over the transactions: the candidates are put in an ItemsetTrie, and each
+ * transaction is walked down the trie once, appending its index and the
+ * probability of every candidate it contains to the list of that candidate.
+ *
+ * The lists are the same as the ones intersected from the vertical index,
+ * without building the index. Each candidate gets room for as many entries
+ * as its least frequent item has transactions, so the candidates of a level
+ * are split into batches whose lists fit in the budget of the options. The
+ * transactions of a dense database are read from its bitmap layout.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see ItemsetTrie
+ * @see wPFIApriori
+ */
+class LevelCounter {
+  /**
+   * The bytes of an entry of the lists: a transaction index and a
+   * probability.
+   */
+  static final int ENTRY_BYTES = Integer.BYTES + Double.BYTES;
+
+  private final int from;
+  private final int to;
+  private final int[] offsets;
+  private final int[] found;
+  private final int[] tids;
+  private final double[] products;
+
+  /**
+   * Count the transactions of a batch of candidates.
+   *
+   * @param candidates the candidates, all of the same size
+   * @param from       the index of the first candidate of the batch
+   * @param to         the index after the last candidate of the batch
+   * @param itemCounts the number of transactions of each item
+   */
+  public LevelCounter(
+    UncertainDatabase database,
+    ArrayList<wPFIItemset> candidates,
+    int from,
+    int to,
+    int[] itemCounts
+  ) {
+    this.from = from;
+    this.to = to;
+    offsets = new int[to - from + 1];
+    found = new int[to - from];
+
+    for (int c = from; c < to; c++)
+      offsets[c - from + 1] = offsets[c - from] + bound(candidates.get(c), itemCounts);
+    tids = new int[offsets[to - from]];
+    products = new double[offsets[to - from]];
+
+    if (to > from)
+      count(database, candidates);
+  }
+
+  /**
+   * Get the number of entries a candidate has room for: the number of
+   * transactions of its least frequent item.
+   *
+   * @param candidate  a candidate
+   * @param itemCounts the number of transactions of each item
+   * @return int
+   */
+  static int bound(wPFIItemset candidate, int[] itemCounts) {
+    int bound = Integer.MAX_VALUE;
+
+    for (int i = 0; i < candidate.size(); i++)
+      bound = Math.min(bound, itemCounts[candidate.get(i)]);
+    return candidate.size() == 0 ? 0 : bound;
+  }
+
+  /**
+   * Count the transactions of each item of a database.
+   *
+   * @param database the database, with dense item ids
+   * @return the number of transactions of each item, indexed by dense id
+   */
+  static int[] itemCounts(UncertainDatabase database) {
+    int[] counts = new int[database.getDictionary().size()];
+    TransactionStore store = database.getStore();
+
+    if (store != null) {
+      for (long position = 0; position < store.entryCount(); position++)
+        counts[store.item(position)]++;
+    } else {
+      for (HashSet<wPFIItem> transaction : database.getTransactions()) {
+        for (wPFIItem item : transaction)
+          counts[item.getId()]++;
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Sum the probabilities of each item of a database, its expected support.
+   *
+   * @param database the database, with dense item ids
+   * @return the expected support of each item, indexed by dense id
+   */
+  static double[] itemSupports(UncertainDatabase database) {
+    double[] supports = new double[database.getDictionary().size()];
+    TransactionStore store = database.getStore();
+
+    if (store != null) {
+      for (long position = 0; position < store.entryCount(); position++)
+        supports[store.item(position)] += store.probability(position);
+    } else {
+      for (HashSet<wPFIItem> transaction : database.getTransactions()) {
+        for (wPFIItem item : transaction)
+          supports[item.getId()] += item.getProbability();
+      }
+    }
+    return supports;
+  }
+
+  /**
+   * Find the index after the last candidate of the batch that starts at
+   * from, so that the lists of the batch fit in the budget.
+   *
+   * @param candidates the candidates
+   * @param from       the index of the first candidate of the batch
+   * @param itemCounts the number of transactions of each item
+   * @param budget     the budget of the lists, in bytes
+   * @return the index after the last candidate, at least from + 1.
+   */
+  static int batchEnd(ArrayList<wPFIItemset> candidates, int from, int[] itemCounts, long budget) {
+    long bytes = 0;
+    int to = from;
+
+    while (to < candidates.size()) {
+      bytes += (long) bound(candidates.get(to), itemCounts) * ENTRY_BYTES;
+      if (to > from && bytes > budget)
+        break;
+      to++;
+    }
+    return to;
+  }
+
+  private void count(UncertainDatabase database, ArrayList<wPFIItemset> candidates) {
+    Integer[] order = new Integer[to - from];
+    for (int c = from; c < to; c++)
+      order[c - from] = c;
+    Arrays.sort(order, (a, b) -> candidates.get(a).compareTo(candidates.get(b)));
+
+    int depth = candidates.get(from).size();
+    int[][] sequences = new int[to - from][];
+    for (int s = 0; s < sequences.length; s++)
+      sequences[s] = candidates.get(order[s]).toArray();
+    ItemsetTrie trie = new ItemsetTrie(sequences, sequences.length, depth);
+
+    int itemCount = database.getDictionary().size();
+    int[] items = new int[itemCount];
+    double[] probabilities = new double[itemCount];
+    double[] row = new double[itemCount];
+    int[] leaves = new int[to - from];
+    double[] values = new double[to - from];
+    TransactionStore store = database.getStore();
+    TransactionBitmap bitmap = database.getTransactionBitmap();
+
+    for (int tid = 0; tid < database.size(); tid++) {
+      int length = 0;
+
+      if (bitmap != null)
+        length = bitmap.row(tid, items, probabilities);
+      else if (store != null) {
+        for (long position = store.start(tid); position < store.end(tid); position++) {
+          items[length] = store.item(position);
+          probabilities[length++] = store.probability(position);
+        }
+      } else {
+        for (wPFIItem item : database.getTransactions().get(tid)) {
+          items[length++] = item.getId();
+          row[item.getId()] = item.getProbability();
+        }
+        Arrays.sort(items, 0, length);
+        for (int i = 0; i < length; i++)
+          probabilities[i] = row[items[i]];
+      }
+
+      int contained = trie.containedIn(items, probabilities, length, leaves, values);
+      for (int i = 0; i < contained; i++) {
+        int c = order[leaves[i]] - from;
+        tids[offsets[c] + found[c]] = tid;
+        products[offsets[c] + found[c]++] = values[i];
+      }
+    }
+  }
+
+  /**
+   * Get the index of the first candidate of the batch.
+   *
+   * @return int
+   */
+  public int getFrom() {
+    return from;
+  }
+
+  /**
+   * Get the index after the last candidate of the batch.
+   *
+   * @return int
+   */
+  public int getTo() {
+    return to;
+  }
+
+  /**
+   * Copy the list of a candidate of the batch.
+   *
+   * @param index    the index of the candidate
+   * @param tids     receives the sorted indices of the transactions that
+   *                 contain it
+   * @param products receives the probability of the candidate in each of
+   *                 them
+   * @return the number of transactions that contain it.
+   */
+  public int copy(int index, int[] tids, double[] products) {
+    int c = index - from;
+
+    System.arraycopy(this.tids, offsets[c], tids, 0, found[c]);
+    System.arraycopy(this.products, offsets[c], products, 0, found[c]);
+    return found[c];
+  }
+}
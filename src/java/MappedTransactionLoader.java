@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class loads a transaction file by memory-mapping it and parsing
+ * line-aligned chunks of bytes on several threads.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see UncertainDatabase
+ */
+class MappedTransactionLoader {
+  /**
+   * Upper bound of the bytes mapped by a single chunk.
+   */
+  static final long MAX_CHUNK_BYTES = 1L << 28;
+
+  /**
+   * The transactions parsed from one chunk of the file. Items of line i are
+   * stored in items[ends[i - 1] .. ends[i]), and their probabilities at the
+   * same indices of probabilities if the file has probabilities.
+   */
+  static class Chunk {
+    int[] items = new int[1024];
+    double[] probabilities = null;
+    int[] ends = new int[64];
+    int itemCount = 0;
+    int lineCount = 0;
+
+    Chunk(boolean hasProbability) {
+      if (hasProbability)
+        probabilities = new double[items.length];
+    }
+
+    void addItem(int item, double probability) {
+      if (itemCount == items.length) {
+        items = Arrays.copyOf(items, items.length * 2);
+        if (probabilities != null)
+          probabilities = Arrays.copyOf(probabilities, items.length);
+      }
+      if (probabilities != null)
+        probabilities[itemCount] = probability;
+      items[itemCount++] = item;
+    }
+
+    void endLine() {
+      if (lineCount == ends.length)
+        ends = Arrays.copyOf(ends, ends.length * 2);
+      ends[lineCount++] = itemCount;
+    }
+
+    int start(int line) {
+      return line == 0 ? 0 : ends[line - 1];
+    }
+  }
+
+  /**
+   * Parse a transaction file into chunks of item ids. At most threads chunks
+   * are parsed at a time, in file order, and no chunk is parsed past the
+   * first maxLines transactions of the file.
+   *
+   * @param path           the directory of the file
+   * @param hasProbability whether the tokens are "(id,probability)" pairs
+   * @param threads        the number of parsing threads
+   * @param maxLines       the number of transactions to parse, or 0 to parse
+   *                       the whole file
+   * @return the parsed chunks, in file order, with maxLines transactions in
+   *         all at most.
+   * @throws IOException exception if error while reading the file.
+   */
+  static ArrayList<Chunk> parse(String path, boolean hasProbability, int threads, int maxLines) throws IOException {
+    ArrayList<Chunk> chunks = new ArrayList<>();
+    int limit = maxLines > 0 ? maxLines : Integer.MAX_VALUE;
+
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      long[] bounds = splitAtLines(channel, threads);
+      ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+      ArrayList<MappedByteBuffer> buffers = new ArrayList<>();
+
+      try {
+        ArrayList<Future<Chunk>> futures = new ArrayList<>();
+        long lines = 0;
+
+        for (int i = 0; i + 1 < bounds.length && lines < limit; i++) {
+          while (futures.size() < i + Math.max(1, threads) && futures.size() + 1 < bounds.length) {
+            int next = futures.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[next],
+                bounds[next + 1] - bounds[next]);
+            buffers.add(buffer);
+            futures.add(executor.submit(() -> parseChunk(buffer.duplicate(), hasProbability, limit)));
+          }
+
+          try {
+            Chunk chunk = futures.get(i).get();
+            chunk.lineCount = (int) Math.min(chunk.lineCount, limit - lines);
+            chunk.itemCount = chunk.lineCount == 0 ? 0 : chunk.ends[chunk.lineCount - 1];
+            lines += chunk.lineCount;
+            chunks.add(chunk);
+          } catch (ExecutionException e) {
+            if (e.getCause() instanceof TransactionFormatException)
+              throw new IOException(path + ": " + ((TransactionFormatException) e.getCause())
+                  .shiftLines(countLines(buffers, i)).getMessage(), e.getCause());
+            throw new IOException("Error while parsing " + path, e.getCause());
+          }
+        }
+
+        for (Future<Chunk> future : futures)
+          future.cancel(true);
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted while parsing " + path, e);
+      } finally {
+        executor.shutdown();
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * Draw the probabilities of the parsed transactions, one chunk per task.
+   * The transactions keep their index in the file, so the result does not
+   * depend on the number of threads.
+   *
+   * @param chunks    the parsed chunks, in file order
+   * @param generator the generator of the probabilities
+   * @param threads   the number of threads
+   * @throws IOException exception if a task fails.
+   */
+  static void assignProbabilities(ArrayList<Chunk> chunks, ProbabilityGenerator generator, int threads)
+      throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+
+    try {
+      ArrayList<Future<?>> futures = new ArrayList<>();
+      long firstTid = 0;
+
+      for (Chunk chunk : chunks) {
+        long tid = firstTid;
+        futures.add(executor.submit(() -> {
+          chunk.probabilities = new double[chunk.itemCount];
+
+          for (int line = 0; line < chunk.lineCount; line++)
+            generator.fill(tid + line, chunk.probabilities, chunk.start(line), chunk.ends[line] - chunk.start(line));
+        }));
+        firstTid += chunk.lineCount;
+      }
+
+      for (Future<?> future : futures)
+        future.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IOException("Error while drawing the probabilities", e);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Split the file into byte ranges that start at the beginning of a line.
+   *
+   * @return the range boundaries, the first is 0 and the last is the file size.
+   */
+  static long[] splitAtLines(FileChannel channel, int threads) throws IOException {
+    long fileSize = channel.size();
+    int count = (int) Math.max(Math.max(1, threads), (fileSize + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+    ArrayList<Long> bounds = new ArrayList<>();
+    ByteBuffer probe = ByteBuffer.allocate(4096);
+
+    bounds.add(0L);
+    for (int i = 1; i < count; i++) {
+      long position = Math.max(fileSize / count * i, bounds.get(bounds.size() - 1));
+      long lineStart = -1;
+
+      while (lineStart < 0 && position < fileSize) {
+        probe.clear();
+        int read = channel.read(probe, position);
+        if (read <= 0)
+          break;
+
+        for (int j = 0; j < read; j++) {
+          if (probe.get(j) == '\n') {
+            lineStart = position + j + 1;
+            break;
+          }
+        }
+        position += read;
+      }
+
+      if (lineStart < 0 || lineStart >= fileSize)
+        break;
+      if (lineStart > bounds.get(bounds.size() - 1))
+        bounds.add(lineStart);
+    }
+    bounds.add(fileSize);
+
+    long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = bounds.get(i);
+    return result;
+  }
+
+  /**
+   * Count the lines of the chunks before a chunk.
+   */
+  static long countLines(ArrayList<MappedByteBuffer> buffers, int chunk) {
+    long lines = 0;
+
+    for (int i = 0; i < chunk; i++) {
+      ByteBuffer buffer = buffers.get(i);
+
+      for (int j = 0; j < buffer.limit(); j++) {
+        if (buffer.get(j) == '\n')
+          lines++;
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * Parse the lines of a line-aligned buffer into item ids, up to maxLines.
+   */
+  static Chunk parseChunk(ByteBuffer buffer, boolean hasProbability, int maxLines)
+      throws TransactionFormatException {
+    Chunk chunk = new Chunk(hasProbability);
+    TransactionParser parser = new TransactionParser(hasProbability, (items, probabilities, length) -> {
+      for (int i = 0; i < length; i++)
+        chunk.addItem(items[i], probabilities[i]);
+      chunk.endLine();
+      return chunk.lineCount < maxLines;
+    });
+
+    parser.parse(buffer);
+    parser.finish();
+    return chunk;
+  }
+}
@@ -0,0 +1,298 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+
+/**
+ * This class stores the transactions of an uncertain database in a binary
+ * file which is memory-mapped when the database is loaded again, so a warm
+ * start skips parsing and keeps the probabilities drawn by the first load.
+ *
+ * The file uses a CSR layout: after a 64-byte header come the transaction
+ * offsets (long), the probabilities of the distinct items (double), the
+ * probabilities of all entries (double), the file ids of the distinct items
+ * in dense id order (int) and the dense item ids of all entries (int). The
+ * header keeps the size and the modification time of the source file, a
+ * cache file is only used while both match. A database loaded with a seed
+ * only uses a cache written with the same seed.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see TransactionStore
+ * @see UncertainDatabase
+ */
+class MappedTransactionStore implements TransactionStore {
+  static final int MAGIC = 0x49465057;
+  static final int VERSION = 3;
+  static final int HEADER_SIZE = 64;
+
+  /**
+   * The number of bytes per mapped segment is 2^SEGMENT_BITS.
+   */
+  static final int SEGMENT_BITS = 30;
+  static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+  private final int size;
+  private final long entryCount;
+  private final int distinctCount;
+  private final ByteBuffer[] offsets;
+  private final ByteBuffer[] distinctProbabilities;
+  private final ByteBuffer[] probabilities;
+  private final ByteBuffer[] distinctIds;
+  private final ByteBuffer[] items;
+
+  private MappedTransactionStore(FileChannel channel, ByteBuffer header) throws IOException {
+    size = header.getInt(32);
+    distinctCount = header.getInt(36);
+    entryCount = header.getLong(40);
+
+    long position = HEADER_SIZE;
+    offsets = map(channel, position, (size + 1L) * 8);
+    position += (size + 1L) * 8;
+    distinctProbabilities = map(channel, position, distinctCount * 8L);
+    position += distinctCount * 8L;
+    probabilities = map(channel, position, entryCount * 8);
+    position += entryCount * 8;
+    distinctIds = map(channel, position, distinctCount * 4L);
+    position += distinctCount * 4L;
+    items = map(channel, position, entryCount * 4);
+  }
+
+  /**
+   * Open a cache file.
+   *
+   * @param cache          the cache file
+   * @param source         the transaction file the cache was built from
+   * @param maxSize        the maximum number of transactions of the database
+   * @param hasProbability whether the source file has probabilities
+   * @param generator      the seeded generator of the probabilities, or null
+   *                       to accept any
+   * @return the store, or null if the cache is missing or out of date.
+   * @throws IOException exception if error while reading the file.
+   */
+  static MappedTransactionStore open(
+    File cache,
+    File source,
+    int maxSize,
+    boolean hasProbability,
+    ProbabilityGenerator generator
+  ) throws IOException {
+    if (!cache.isFile() || cache.length() < HEADER_SIZE)
+      return null;
+
+    try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(header, 0);
+
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+          || header.getLong(8) != source.length()
+          || header.getLong(16) != Files.getLastModifiedTime(source.toPath()).toMillis()
+          || header.getInt(24) != maxSize
+          || header.getInt(28) != (hasProbability ? 1 : 0))
+        return null;
+
+      if (generator != null && !hasProbability
+          && (header.getInt(52) != 1 || header.getLong(56) != generator.getSeed()))
+        return null;
+
+      // A truncated or corrupt file is written again.
+      if (channel.size() != fileSize(header))
+        return null;
+
+      return new MappedTransactionStore(channel, header);
+    }
+  }
+
+  /**
+   * Get the size of a cache file from the counts in its header.
+   *
+   * @param header the header of the file
+   * @return the size in bytes, or -1 if a count is negative.
+   */
+  private static long fileSize(ByteBuffer header) {
+    long size = header.getInt(32);
+    long distinctCount = header.getInt(36);
+    long entryCount = header.getLong(40);
+
+    if (size < 0 || distinctCount < 0 || entryCount < 0 || entryCount > Long.MAX_VALUE / 32)
+      return -1;
+    return HEADER_SIZE + (size + 1) * 8 + distinctCount * 12 + entryCount * 12;
+  }
+
+  /**
+   * Write a database to a cache file. The file is written next to the cache
+   * file first, then moved in place.
+   *
+   * @param cache          the cache file
+   * @param source         the transaction file the database was loaded from
+   * @param maxSize        the maximum number of transactions of the database
+   * @param hasProbability whether the source file has probabilities
+   * @param generator      the seeded generator of the probabilities, or null
+   * @param store          the transactions of the database
+   * @param allItems       the distinct items of the database
+   * @param dictionary     the dictionary of the dense item ids
+   * @throws IOException exception if error while writing the file.
+   */
+  static void write(
+    File cache,
+    File source,
+    int maxSize,
+    boolean hasProbability,
+    ProbabilityGenerator generator,
+    TransactionStore store,
+    HashSet<wPFIItem> allItems,
+    ItemDictionary dictionary
+  ) throws IOException {
+    double[] itemProbabilities = new double[dictionary.size()];
+    for (wPFIItem item : allItems)
+      itemProbabilities[item.getId()] = item.getProbability();
+
+    File temp = new File(cache.getPath() + ".tmp");
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+    try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      buffer.putInt(MAGIC);
+      buffer.putInt(VERSION);
+      buffer.putLong(source.length());
+      buffer.putLong(Files.getLastModifiedTime(source.toPath()).toMillis());
+      buffer.putInt(maxSize);
+      buffer.putInt(hasProbability ? 1 : 0);
+      buffer.putInt(store.size());
+      buffer.putInt(dictionary.size());
+      buffer.putLong(store.entryCount());
+      buffer.putInt(0);
+      buffer.putInt(generator == null ? 0 : 1);
+      buffer.putLong(generator == null ? 0 : generator.getSeed());
+
+      for (int tid = 0; tid < store.size(); tid++)
+        putLong(channel, buffer, store.start(tid));
+      putLong(channel, buffer, store.entryCount());
+
+      for (double probability : itemProbabilities)
+        putDouble(channel, buffer, probability);
+      for (long position = 0; position < store.entryCount(); position++)
+        putDouble(channel, buffer, store.probability(position));
+      for (int i = 0; i < dictionary.size(); i++)
+        putInt(channel, buffer, dictionary.rawId(i));
+      for (long position = 0; position < store.entryCount(); position++)
+        putInt(channel, buffer, store.item(position));
+
+      flush(channel, buffer);
+    }
+    Files.move(temp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Get the distinct items of the database.
+   *
+   * @return a Set of Items
+   */
+  public HashSet<wPFIItem> getAllItems() {
+    HashSet<wPFIItem> allItems = new HashSet<>();
+
+    for (int i = 0; i < distinctCount; i++)
+      allItems.add(new wPFIItem(i, getDouble(distinctProbabilities, i)));
+    return allItems;
+  }
+
+  /**
+   * Get the dictionary between the dense item ids and the ids of the source
+   * file.
+   *
+   * @return an ItemDictionary
+   */
+  public ItemDictionary getDictionary() {
+    int[] rawIds = new int[distinctCount];
+
+    for (int i = 0; i < distinctCount; i++)
+      rawIds[i] = getInt(distinctIds, i);
+    return new ItemDictionary(rawIds);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public long entryCount() {
+    return entryCount;
+  }
+
+  @Override
+  public long start(int tid) {
+    return getLong(offsets, tid);
+  }
+
+  @Override
+  public long end(int tid) {
+    return getLong(offsets, tid + 1L);
+  }
+
+  @Override
+  public int item(long position) {
+    return getInt(items, position);
+  }
+
+  @Override
+  public double probability(long position) {
+    return getDouble(probabilities, position);
+  }
+
+  private static ByteBuffer[] map(FileChannel channel, long position, long length) throws IOException {
+    ByteBuffer[] segments = new ByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+
+    for (int i = 0; i < segments.length; i++) {
+      long offset = (long) i << SEGMENT_BITS;
+      segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + offset,
+          Math.min(SEGMENT_MASK + 1, length - offset)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return segments;
+  }
+
+  private static long getLong(ByteBuffer[] segments, long index) {
+    long position = index << 3;
+    return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK));
+  }
+
+  private static double getDouble(ByteBuffer[] segments, long index) {
+    long position = index << 3;
+    return segments[(int) (position >>> SEGMENT_BITS)].getDouble((int) (position & SEGMENT_MASK));
+  }
+
+  private static int getInt(ByteBuffer[] segments, long index) {
+    long position = index << 2;
+    return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+  }
+
+  private static void putLong(FileChannel channel, ByteBuffer buffer, long value) throws IOException {
+    if (buffer.remaining() < 8)
+      flush(channel, buffer);
+    buffer.putLong(value);
+  }
+
+  private static void putDouble(FileChannel channel, ByteBuffer buffer, double value) throws IOException {
+    if (buffer.remaining() < 8)
+      flush(channel, buffer);
+    buffer.putDouble(value);
+  }
+
+  private static void putInt(FileChannel channel, ByteBuffer buffer, int value) throws IOException {
+    if (buffer.remaining() < 4)
+      flush(channel, buffer);
+    buffer.putInt(value);
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+    buffer.clear();
+  }
+}
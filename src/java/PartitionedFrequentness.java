@@ -0,0 +1,72 @@
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class computes the support distribution of an itemset, truncated at
+ * minsup, on a ForkJoinPool. The transactions that contain the itemset are
+ * split into partitions, the distribution of each partition is computed by
+ * its own worker, and the distributions are merged by truncated convolution
+ * on the way back up.
+ *
+ * This splits the work of a single itemset over several threads, for the
+ * levels with fewer candidates than threads.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see SupportDistribution
+ * @see wPFIApriori
+ */
+class PartitionedFrequentness extends RecursiveTask<SupportDistribution> {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Lists shorter than MIN_SIZE are not worth splitting.
+   */
+  static final int MIN_SIZE = 1 << 14;
+
+  private final double[] products;
+  private final int minsup;
+  private final int from;
+  private final int to;
+  private final int partitions;
+
+  /**
+   * Constructor
+   *
+   * @param products   the probability of the itemset in each transaction that
+   *                   contains it
+   * @param found      the number of these transactions
+   * @param minsup     the minimum support, at least 1
+   * @param partitions the number of partitions
+   */
+  public PartitionedFrequentness(double[] products, int found, int minsup, int partitions) {
+    this(products, minsup, 0, found, partitions);
+  }
+
+  private PartitionedFrequentness(double[] products, int minsup, int from, int to, int partitions) {
+    this.products = products;
+    this.minsup = minsup;
+    this.from = from;
+    this.to = to;
+    this.partitions = partitions;
+  }
+
+  @Override
+  protected SupportDistribution compute() {
+    if (partitions <= 1) {
+      SupportDistribution distribution = new SupportDistribution(minsup);
+
+      for (int k = from; k < to; k++)
+        distribution.add(products[k]);
+      return distribution;
+    }
+
+    int half = partitions / 2;
+    int middle = from + (int) ((long) (to - from) * half / partitions);
+    PartitionedFrequentness left = new PartitionedFrequentness(products, minsup, from, middle, half);
+    PartitionedFrequentness right = new PartitionedFrequentness(products, minsup, middle, to, partitions - half);
+
+    right.fork();
+    SupportDistribution distribution = left.compute();
+    return distribution.merge(right.join());
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * This class draws the existential probabilities of the items of a
+ * transaction from the Gaussian distribution with mean 0.5 and variance 0.125,
+ * rounded to one decimal.
+ *
+ * The probabilities of a transaction only depend on the seed and on the index
+ * of the transaction, so transactions may be filled in any order and on any
+ * number of threads, and the same seed always gives the same database.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see UncertainDatabase
+ */
+class ProbabilityGenerator {
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final double STANDARD_DEVIATION = Math.sqrt(0.125);
+
+  private final long seed;
+
+  /**
+   * Constructor
+   *
+   * @param seed the seed of the generator
+   */
+  public ProbabilityGenerator(long seed) {
+    this.seed = seed;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Fill the probabilities of a transaction.
+   *
+   * @param tid           the index of the transaction
+   * @param probabilities the array to fill
+   * @param offset        the index of the first probability
+   * @param length        the number of probabilities
+   */
+  public void fill(long tid, double[] probabilities, int offset, int length) {
+    long state = mix64(seed + tid * GOLDEN_GAMMA);
+    int end = offset + length;
+
+    for (int i = offset; i < end; i += 2) {
+      state += GOLDEN_GAMMA;
+      double u1 = ((mix64(state) >>> 11) + 1) * 0x1.0p-53;
+      state += GOLDEN_GAMMA;
+      double u2 = (mix64(state) >>> 11) * 0x1.0p-53;
+
+      double radius = Math.sqrt(-2 * Math.log(u1));
+      double angle = 2 * Math.PI * u2;
+
+      probabilities[i] = toProbability(radius * Math.cos(angle));
+      if (i + 1 < end)
+        probabilities[i + 1] = toProbability(radius * Math.sin(angle));
+    }
+  }
+
+  /**
+   * Turn a standard Gaussian value into a probability with mean 0.5 and
+   * variance 0.125, rounded to one decimal and kept in (0, 1].
+   */
+  static double toProbability(double gaussian) {
+    double prob = Math.round((gaussian * STANDARD_DEVIATION + 0.5) * 10) / 10.0;
+
+    if (prob > 1)
+      return 1;
+
+    if (prob <= 0)
+      return 0.1;
+
+    return prob;
+  }
+
+  /**
+   * The SplitMix64 finalizer, as used by java.util.SplittableRandom.
+   */
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,69 @@
+import java.util.Arrays;
+
+/**
+ * This class is the lookup table of a quantized probability storage: it gives
+ * each distinct probability a one-byte code, up to MAX_LEVELS of them.
+ * Decoding a code gives back the exact probability.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see ChunkedTransactionStore
+ */
+class ProbabilityLevels {
+  static final int MAX_LEVELS = 256;
+  private static final int TABLE_SIZE = 2 * MAX_LEVELS;
+
+  private final double[] levels = new double[MAX_LEVELS];
+  private final int[] table = new int[TABLE_SIZE];
+  private int count = 0;
+
+  /**
+   * Constructor
+   */
+  public ProbabilityLevels() {
+    Arrays.fill(table, -1);
+  }
+
+  /**
+   * Get the number of levels.
+   *
+   * @return int
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Get the probability of a code.
+   *
+   * @param code the code, as an unsigned byte
+   * @return double
+   */
+  public double level(byte code) {
+    return levels[code & 0xFF];
+  }
+
+  /**
+   * Get the code of a probability, adding a level if it is new.
+   *
+   * @param probability the probability
+   * @return the code as an int in 0..255, or -1 if all the levels are used.
+   */
+  public int code(double probability) {
+    long bits = Double.doubleToLongBits(probability);
+    int slot = (int) ((bits ^ (bits >>> 29)) * 0x9E3779B97F4A7C15L >>> 55) & (TABLE_SIZE - 1);
+
+    while (table[slot] >= 0) {
+      if (Double.doubleToLongBits(levels[table[slot]]) == bits)
+        return table[slot];
+      slot = (slot + 1) & (TABLE_SIZE - 1);
+    }
+
+    if (count == MAX_LEVELS)
+      return -1;
+
+    levels[count] = probability;
+    table[slot] = count;
+    return count++;
+  }
+}
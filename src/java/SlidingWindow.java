@@ -0,0 +1,324 @@
+import java.util.Arrays;
+
+/**
+ * This class keeps the last transactions of a stream of uncertain
+ * transactions. For every item it keeps the sequence numbers of the
+ * transactions of the window that contain it and the matching existential
+ * probabilities, so the window is shared by all the itemsets mined from it.
+ *
+ * When a transaction arrives in a full window, the oldest transaction is
+ * evicted. Since transactions leave in the order they came, they are always
+ * at the front of the lists of their items. The list of an item that leaves
+ * the window is shrunk back, and remap drops the items no longer in it.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see wPFIStreamMiner
+ */
+class SlidingWindow {
+  private static final int MIN_LIST = 4;
+
+  private final int capacity;
+  private final int[][] items;
+  private final double[][] probabilities;
+  private final int[] lengths;
+  private long first = 0;
+  private long next = 0;
+  private long entryCount = 0;
+
+  private long[][] itemTids = new long[0][];
+  private double[][] itemProbabilities = new double[0][];
+  private int[] heads = new int[0];
+  private int[] counts = new int[0];
+
+  /**
+   * Constructor
+   *
+   * @param capacity the number of transactions in a full window
+   */
+  public SlidingWindow(int capacity) {
+    if (capacity <= 0)
+      throw new IllegalArgumentException("window size must be positive: " + capacity);
+
+    this.capacity = capacity;
+    items = new int[capacity][];
+    probabilities = new double[capacity][];
+    lengths = new int[capacity];
+  }
+
+  /**
+   * Get the number of transactions in the window.
+   *
+   * @return int
+   */
+  public int size() {
+    return (int) (next - first);
+  }
+
+  /**
+   * Get the sequence number of the oldest transaction of the window.
+   *
+   * @return long
+   */
+  public long getFirst() {
+    return first;
+  }
+
+  /**
+   * Get the sequence number of the next transaction.
+   *
+   * @return long
+   */
+  public long getNext() {
+    return next;
+  }
+
+  /**
+   * Get the average number of items of the transactions in the window.
+   *
+   * @return double
+   */
+  public double getTransactionSize() {
+    return size() == 0 ? 0 : (double) entryCount / size();
+  }
+
+  /**
+   * Get the number of transactions of the window that contain an item.
+   *
+   * @param item the dense id of the item
+   * @return int
+   */
+  public int count(int item) {
+    return item < counts.length ? counts[item] : 0;
+  }
+
+  /**
+   * Get the expected support of an item in the window.
+   *
+   * @param item the dense id of the item
+   * @return double
+   */
+  public double expectedSupport(int item) {
+    double mu = 0;
+
+    for (int i = 0; i < count(item); i++)
+      mu += probability(item, i);
+    return mu;
+  }
+
+  /**
+   * Add a transaction to the window, evicting the oldest one if the window is
+   * full. The items must be distinct.
+   *
+   * @param transactionItems         the dense ids of the items
+   * @param transactionProbabilities the existential probabilities of the items
+   * @param length                   the number of items
+   */
+  public void add(int[] transactionItems, double[] transactionProbabilities, int length) {
+    if (size() == capacity)
+      evict();
+
+    int slot = (int) (next % capacity);
+    if (items[slot] == null || items[slot].length < length) {
+      items[slot] = new int[Math.max(length, 8)];
+      probabilities[slot] = new double[items[slot].length];
+    }
+
+    for (int i = 0; i < length; i++) {
+      int item = transactionItems[i];
+      items[slot][i] = item;
+      probabilities[slot][i] = transactionProbabilities[i];
+      push(item, next, transactionProbabilities[i]);
+    }
+    lengths[slot] = length;
+    entryCount += length;
+    next++;
+  }
+
+  private void evict() {
+    int slot = (int) (first % capacity);
+
+    for (int i = 0; i < lengths[slot]; i++) {
+      int item = items[slot][i];
+      heads[item] = (heads[item] + 1) & (itemTids[item].length - 1);
+
+      if (--counts[item] == 0 && itemTids[item].length > MIN_LIST) {
+        itemTids[item] = new long[MIN_LIST];
+        itemProbabilities[item] = new double[MIN_LIST];
+        heads[item] = 0;
+      }
+    }
+    entryCount -= lengths[slot];
+    first++;
+  }
+
+  /**
+   * Give new dense ids to the items, dropping the ones that are not in the
+   * window.
+   *
+   * @param map       the new id of each item, or -1 for an item that is not
+   *                  in the window
+   * @param itemCount the number of new ids
+   */
+  public void remap(int[] map, int itemCount) {
+    for (long tid = first; tid < next; tid++) {
+      int slot = (int) (tid % capacity);
+
+      for (int i = 0; i < lengths[slot]; i++)
+        items[slot][i] = map[items[slot][i]];
+    }
+
+    long[][] newTids = new long[itemCount][];
+    double[][] newProbabilities = new double[itemCount][];
+    int[] newHeads = new int[itemCount];
+    int[] newCounts = new int[itemCount];
+
+    for (int item = 0; item < counts.length && item < map.length; item++) {
+      if (map[item] < 0)
+        continue;
+      newTids[map[item]] = itemTids[item];
+      newProbabilities[map[item]] = itemProbabilities[item];
+      newHeads[map[item]] = heads[item];
+      newCounts[map[item]] = counts[item];
+    }
+    for (int item = 0; item < itemCount; item++) {
+      if (newTids[item] == null) {
+        newTids[item] = new long[MIN_LIST];
+        newProbabilities[item] = new double[MIN_LIST];
+      }
+    }
+
+    itemTids = newTids;
+    itemProbabilities = newProbabilities;
+    heads = newHeads;
+    counts = newCounts;
+  }
+
+  private void push(int item, long tid, double probability) {
+    if (item >= counts.length) {
+      int itemCount = Math.max(item + 1, counts.length * 2);
+      int oldCount = counts.length;
+
+      itemTids = Arrays.copyOf(itemTids, itemCount);
+      itemProbabilities = Arrays.copyOf(itemProbabilities, itemCount);
+      heads = Arrays.copyOf(heads, itemCount);
+      counts = Arrays.copyOf(counts, itemCount);
+
+      for (int i = oldCount; i < itemCount; i++) {
+        itemTids[i] = new long[MIN_LIST];
+        itemProbabilities[i] = new double[MIN_LIST];
+      }
+    }
+
+    int mask = itemTids[item].length - 1;
+    if (counts[item] > mask) {
+      long[] tids = new long[(mask + 1) * 2];
+      double[] itemProbability = new double[tids.length];
+
+      for (int i = 0; i < counts[item]; i++) {
+        tids[i] = itemTids[item][(heads[item] + i) & mask];
+        itemProbability[i] = itemProbabilities[item][(heads[item] + i) & mask];
+      }
+      itemTids[item] = tids;
+      itemProbabilities[item] = itemProbability;
+      heads[item] = 0;
+      mask = tids.length - 1;
+    }
+
+    int tail = (heads[item] + counts[item]++) & mask;
+    itemTids[item][tail] = tid;
+    itemProbabilities[item][tail] = probability;
+  }
+
+  private long tid(int item, int index) {
+    return itemTids[item][(heads[item] + index) & (itemTids[item].length - 1)];
+  }
+
+  private double probability(int item, int index) {
+    return itemProbabilities[item][(heads[item] + index) & (itemTids[item].length - 1)];
+  }
+
+  /**
+   * Find the index of the first transaction of the list of an item whose
+   * sequence number is at least tid.
+   */
+  private int lowerBound(int item, long tid) {
+    int low = 0;
+    int high = count(item);
+
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+
+      if (tid(item, middle) < tid)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Find the probability of an itemset in each transaction of the window that
+   * contains all of its items. The probabilities are multiplied in the order
+   * of items.
+   *
+   * @param itemIds  the dense ids of the items, at least one
+   * @param count    the number of items
+   * @param products receives the probability of the itemset in each
+   *                 transaction that contains it; must hold the window size
+   * @return the number of transactions found.
+   */
+  public int intersect(int[] itemIds, int count, double[] products) {
+    return intersect(itemIds, count, first, null, products);
+  }
+
+  /**
+   * Find the probability of an itemset in each transaction of the window from
+   * a given one that contains all of its items. The probabilities are
+   * multiplied in the order of items.
+   *
+   * @param itemIds  the dense ids of the items, at least one
+   * @param count    the number of items
+   * @param from     the sequence number of the first transaction to search
+   * @param tids     receives the sequence numbers of the transactions, in
+   *                 order, or null
+   * @param products receives the probability of the itemset in each
+   *                 transaction that contains it; must hold the window size
+   * @return the number of transactions found.
+   */
+  public int intersect(int[] itemIds, int count, long from, long[] tids, double[] products) {
+    int shortest = 0;
+    for (int i = 1; i < count; i++) {
+      if (count(itemIds[i]) < count(itemIds[shortest]))
+        shortest = i;
+    }
+
+    int found = 0;
+    int[] positions = new int[count];
+    for (int i = 0; i < count; i++)
+      positions[i] = lowerBound(itemIds[i], from);
+
+    for (int j = positions[shortest]; j < count(itemIds[shortest]); j++) {
+      long tid = tid(itemIds[shortest], j);
+      boolean contained = true;
+
+      for (int i = 0; i < count && contained; i++) {
+        int item = itemIds[i];
+
+        while (positions[i] < count(item) && tid(item, positions[i]) < tid)
+          positions[i]++;
+        contained = positions[i] < count(item) && tid(item, positions[i]) == tid;
+      }
+      if (!contained)
+        continue;
+
+      double product = 1;
+      for (int i = 0; i < count; i++)
+        product *= probability(itemIds[i], positions[i]);
+      if (tids != null)
+        tids[found] = tid;
+      products[found++] = product;
+    }
+    return found;
+  }
+}
@@ -0,0 +1,282 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the expected supports of the itemsets evaluated by
+ * wPFIApriori, in place of a HashMap of boxed values: the itemsets and the
+ * supports are stored in two arrays, probed linearly from the hash of the
+ * itemset, and a removed entry is filled by shifting back the entries after
+ * it.
+ *
+ * The generation of level k + 1 only reads the supports of the wPFI of level
+ * k and of the single items, so retainLevel drops the others once a level is
+ * known. With a cap on the number of entries, a full cache evicts the itemsets
+ * of more than one item in the order of a clock, skipping the ones read since
+ * the clock last passed. A support evicted too early is computed again by
+ * wPFIApriori.expectedSupport.
+ *
+ * Several threads can read the cache while no thread writes it, as the
+ * workers of CandidateGeneration do. A read is not free of writes: get sets
+ * the clock bit of the entry it finds and counts the hit or the miss. The
+ * readers only ever set the bit to true, and only put clears it, so racing
+ * readers at worst set it twice; the counters are LongAdders.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see wPFIApriori
+ * @see wPFIItemset
+ */
+class SupportCache {
+  static final int UNLIMITED = 0;
+
+  private static final int MIN_CAPACITY = 16;
+
+  private final int maxEntries;
+  private wPFIItemset[] keys;
+  private double[] values;
+  private boolean[] referenced;
+  private int size;
+  private int hand;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Constructor of a cache without a cap.
+   */
+  public SupportCache() {
+    this(UNLIMITED);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxEntries the largest number of entries, or UNLIMITED
+   */
+  public SupportCache(int maxEntries) {
+    if (maxEntries < 0)
+      throw new IllegalArgumentException("maxEntries must not be negative: " + maxEntries);
+
+    this.maxEntries = maxEntries;
+    allocate(maxEntries == UNLIMITED ? MIN_CAPACITY : tableSize(maxEntries));
+  }
+
+  private static int tableSize(int entries) {
+    // At most half of the slots are used, so the probes stay short.
+    return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, entries - 1)) << 2);
+  }
+
+  private void allocate(int capacity) {
+    keys = new wPFIItemset[capacity];
+    values = new double[capacity];
+    referenced = new boolean[capacity];
+    size = 0;
+    hand = 0;
+  }
+
+  private int home(wPFIItemset itemset) {
+    int hash = itemset.hashCode() * 0x9E3779B9;
+    return (hash ^ hash >>> 16) & (keys.length - 1);
+  }
+
+  private int slot(wPFIItemset itemset) {
+    int mask = keys.length - 1;
+    int slot = home(itemset);
+
+    while (keys[slot] != null && !keys[slot].equals(itemset))
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  /**
+   * Get the number of entries.
+   *
+   * @return int
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Check if a number of entries fits in the cache without an eviction.
+   *
+   * @param entries the number of entries
+   * @return true if it does, otherwise false.
+   */
+  public boolean fits(int entries) {
+    return maxEntries == UNLIMITED || entries <= maxEntries;
+  }
+
+  /**
+   * Get the expected support of an itemset.
+   *
+   * @param itemset a wPFIItemset
+   * @return the expected support, or NaN if it is not in the cache.
+   */
+  public double get(wPFIItemset itemset) {
+    int slot = slot(itemset);
+
+    if (keys[slot] == null) {
+      misses.increment();
+      return Double.NaN;
+    }
+    hits.increment();
+    referenced[slot] = true;
+    return values[slot];
+  }
+
+  /**
+   * Keep the expected support of an itemset, evicting another entry if the
+   * cache is full.
+   *
+   * @param itemset a wPFIItemset
+   * @param mu      its expected support
+   */
+  public void put(wPFIItemset itemset, double mu) {
+    int slot = slot(itemset);
+
+    if (keys[slot] != null) {
+      values[slot] = mu;
+      return;
+    }
+
+    if (maxEntries != UNLIMITED && size >= maxEntries) {
+      if (!evict())
+        return;
+      slot = slot(itemset);
+    } else if (maxEntries == UNLIMITED && (size + 1) * 2 > keys.length) {
+      resize(keys.length * 2);
+      slot = slot(itemset);
+    }
+
+    keys[slot] = itemset;
+    values[slot] = mu;
+    referenced[slot] = false;
+    size++;
+  }
+
+  /**
+   * Evict the first itemset of more than one item after the hand of the
+   * clock that was not read since the hand last passed it.
+   *
+   * @return true if an entry was evicted, or false if the cache only holds
+   *         single items.
+   */
+  private boolean evict() {
+    int mask = keys.length - 1;
+
+    for (int step = 0; step < 2 * keys.length; step++) {
+      int slot = hand;
+      hand = (hand + 1) & mask;
+
+      if (keys[slot] == null || keys[slot].size() == 1)
+        continue;
+      if (referenced[slot]) {
+        referenced[slot] = false;
+        continue;
+      }
+
+      remove(slot);
+      evictions.increment();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Remove the entry of a slot, shifting back the entries probed past it.
+   */
+  private void remove(int slot) {
+    int mask = keys.length - 1;
+    int gap = slot;
+
+    for (int next = (gap + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+      int home = home(keys[next]);
+
+      // The entry can move to the gap if its home is not in (gap, next].
+      if (((next - home) & mask) >= ((next - gap) & mask)) {
+        keys[gap] = keys[next];
+        values[gap] = values[next];
+        referenced[gap] = referenced[next];
+        gap = next;
+      }
+    }
+    keys[gap] = null;
+    referenced[gap] = false;
+    size--;
+  }
+
+  private void resize(int capacity) {
+    wPFIItemset[] oldKeys = keys;
+    double[] oldValues = values;
+    boolean[] oldReferenced = referenced;
+    allocate(capacity);
+
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        int slot = slot(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+        referenced[slot] = oldReferenced[i];
+        size++;
+      }
+    }
+  }
+
+  /**
+   * Keep only the entries the generation of the next level can read: the
+   * wPFI of a level and the single items.
+   *
+   * @param level the wPFI of the last level
+   */
+  public void retainLevel(HashSet<wPFIItemset> level) {
+    int removed = 0;
+
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (keys[slot] != null && keys[slot].size() != 1 && !level.contains(keys[slot])) {
+        keys[slot] = null;
+        removed++;
+      }
+    }
+
+    if (removed > 0) {
+      evictions.add(removed);
+      int capacity = maxEntries == UNLIMITED ? keys.length : tableSize(maxEntries);
+      while (maxEntries == UNLIMITED && capacity > MIN_CAPACITY && (size - removed) * 8 < capacity)
+        capacity /= 2;
+      resize(capacity);
+    }
+  }
+
+  /**
+   * Remove every entry. The counters are kept.
+   */
+  public void clear() {
+    Arrays.fill(keys, null);
+    Arrays.fill(referenced, false);
+    size = 0;
+    hand = 0;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * Print the counters of the cache to System.out.
+   */
+  public void printCounters() {
+    System.out.printf("Support cache: %d entries, hits: %d, misses: %d, evictions: %d\n", size, getHits(),
+        getMisses(), getEvictions());
+  }
+}
@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ * This class keeps the support distribution of an itemset over the
+ * transactions seen so far, so it can be updated when transactions are
+ * appended instead of being computed again from the first transaction.
+ *
+ * The distribution is truncated: entry k is Pr(support = k) for k below the
+ * capacity, and the last entry is Pr(support >= capacity). It gives the
+ * probability that the itemset is frequent for any minimum support up to the
+ * capacity. The distributions of disjoint sets of transactions can be merged.
+ *
+ * The support cannot exceed the number of transactions where the itemset has
+ * a nonzero probability, so the array only holds the entries up to that
+ * number, and grows with it up to the capacity.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see wPFIApriori
+ */
+class SupportDistribution {
+  private static final int MIN_LENGTH = 8;
+
+  private final int capacity;
+  private double[] distribution;
+  private int top = 0;
+  private int seen = 0;
+  private double mu = 0;
+
+  /**
+   * Constructor
+   *
+   * @param capacity the largest minimum support the distribution can answer,
+   *                 at least 1
+   */
+  public SupportDistribution(int capacity) {
+    this(capacity, Math.min(capacity, MIN_LENGTH));
+    distribution[0] = 1;
+  }
+
+  private SupportDistribution(int capacity, int support) {
+    this.capacity = capacity;
+    distribution = new double[Math.min(capacity, support) + 1];
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Get the number of transactions added to the distribution.
+   *
+   * @return int
+   */
+  public int getSeen() {
+    return seen;
+  }
+
+  /**
+   * Get the expected support of the itemset.
+   *
+   * @return double
+   */
+  public double getMu() {
+    return mu;
+  }
+
+  /**
+   * Add the next transaction.
+   *
+   * @param probability the probability of the itemset in the transaction
+   */
+  public void add(double probability) {
+    seen++;
+    if (probability == 0)
+      return;
+
+    mu += probability;
+
+    if (top < capacity) {
+      top++;
+      if (top == distribution.length)
+        distribution = Arrays.copyOf(distribution, Math.min(capacity + 1, 2 * distribution.length));
+    }
+    if (top == capacity)
+      distribution[capacity] += distribution[capacity - 1] * probability;
+
+    for (int k = Math.min(top, capacity - 1); k > 0; k--)
+      distribution[k] = distribution[k] * (1 - probability) + distribution[k - 1] * probability;
+    distribution[0] *= 1 - probability;
+  }
+
+  /**
+   * Get the distribution over the transactions of this distribution and of
+   * another one, which must not share any transaction, truncated at the same
+   * capacity.
+   *
+   * @param other the other distribution, with the same capacity
+   * @return a new SupportDistribution
+   */
+  public SupportDistribution merge(SupportDistribution other) {
+    double[] a = distribution;
+    double[] b = other.distribution;
+    int topA = Math.min(top, capacity - 1);
+    int topB = Math.min(other.top, capacity - 1);
+
+    SupportDistribution merged = new SupportDistribution(capacity, top + other.top);
+    double[] c = merged.distribution;
+
+    if ((long) (topA + 1) * (topB + 1) > FrequentnessEngine.DIRECT_WORK) {
+      double[] product = FrequentnessEngine.get().multiply(Arrays.copyOf(a, topA + 1), Arrays.copyOf(b, topB + 1));
+      System.arraycopy(product, 0, c, 0, Math.min(capacity, product.length));
+    } else {
+      for (int i = 0; i <= topA; i++) {
+        for (int j = 0; j <= topB && i + j < capacity; j++)
+          c[i + j] += a[i] * b[j];
+      }
+    }
+
+    if (c.length == capacity + 1) {
+      // suffix[k] = Pr(the support of other >= k)
+      double[] suffix = new double[capacity + 2];
+      for (int k = b.length - 1; k >= 0; k--)
+        suffix[k] = suffix[k + 1] + b[k];
+
+      c[capacity] = (a.length == capacity + 1 ? a[capacity] : 0) * suffix[0];
+      for (int i = 0; i <= topA; i++)
+        c[capacity] += a[i] * suffix[capacity - i];
+    }
+
+    merged.top = Math.min(capacity, top + other.top);
+    merged.seen = seen + other.seen;
+    merged.mu = mu + other.mu;
+    return merged;
+  }
+
+  /**
+   * Get the probability that the support of the itemset is at least minsup.
+   *
+   * @param minsup the minimum support, at most the capacity
+   * @return double
+   */
+  public double tail(int minsup) {
+    double probability = 0;
+
+    for (int k = distribution.length - 1; k >= minsup; k--)
+      probability += distribution[k];
+    return Math.min(probability, 1);
+  }
+}
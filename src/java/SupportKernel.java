@@ -0,0 +1,98 @@
+/**
+ * This class holds the loops over support vectors that run once per
+ * transaction of an itemset: the products of the probabilities of its items,
+ * the sum of these products into its expected support, and the update of
+ * the dynamic programming vector by one transaction.
+ *
+ * These loops are written in plain Java here. VectorSupportKernel, in
+ * src/java/vector, overrides them with the incubating Vector API of the JDK.
+ * It is used when it was compiled and the jdk.incubator.vector module is
+ * available at run time, for example with
+ *
+ * javac --add-modules jdk.incubator.vector *.java vector/*.java
+ * java --add-modules jdk.incubator.vector wPFIApriori ...
+ *
+ * and these loops are used otherwise. The products and the dynamic
+ * programming give the same values with both kernels; the sums may differ
+ * in the last bits, since the vector kernel adds in a different order.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see VerticalIndex
+ * @see FrequentnessEngine
+ */
+class SupportKernel {
+  private static final SupportKernel KERNEL = load();
+
+  /**
+   * Get the fastest kernel available.
+   *
+   * @return a SupportKernel
+   */
+  static SupportKernel get() {
+    return KERNEL;
+  }
+
+  private static SupportKernel load() {
+    if (Boolean.getBoolean("wpfi.scalar"))
+      return new SupportKernel();
+
+    try {
+      return (SupportKernel) Class.forName("VectorSupportKernel").getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+      return new SupportKernel();
+    }
+  }
+
+  /**
+   * Get the name of the kernel, for the logs.
+   *
+   * @return String
+   */
+  String name() {
+    return "scalar";
+  }
+
+  /**
+   * Multiply the probabilities of an item into the products of an itemset:
+   * products[j] *= column[positions[j]] for j < count.
+   *
+   * @param products  the products of the itemset
+   * @param column    the probabilities of the item, in the order of its list
+   * @param positions the position in column of each transaction
+   * @param count     the number of transactions
+   */
+  void multiply(double[] products, double[] column, int[] positions, int count) {
+    for (int j = 0; j < count; j++)
+      products[j] *= column[positions[j]];
+  }
+
+  /**
+   * Sum the first count values.
+   *
+   * @param values the values
+   * @param count  the number of values
+   * @return double
+   */
+  double sum(double[] values, int count) {
+    double sum = 0;
+
+    for (int j = 0; j < count; j++)
+      sum += values[j];
+    return sum;
+  }
+
+  /**
+   * Add a transaction to the column of the dynamic programming:
+   * P[i] = P[i - 1] * probability + P[i] * (1 - probability) for i from top
+   * down to 1.
+   *
+   * @param P           the column, of at least top + 1 values
+   * @param top         the last row to update
+   * @param probability the probability of the itemset in the transaction
+   */
+  void step(double[] P, int top, double probability) {
+    for (int i = top; i >= 1; i--)
+      P[i] = P[i - 1] * probability + P[i] * (1 - probability);
+  }
+}
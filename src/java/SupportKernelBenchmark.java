@@ -0,0 +1,91 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class compares the running time of the loops of the SupportKernel
+ * that is loaded, with the vector kernel if it is available, to the plain
+ * Java loops, on random support vectors of the given length. Each loop is
+ * repeated for about WORK operations per round, and the first rounds warm up
+ * the compiler.
+ *
+ * java [--add-modules jdk.incubator.vector] SupportKernelBenchmark [length]
+ * [minsup] [rounds]
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see SupportKernel
+ */
+public class SupportKernelBenchmark {
+  private static final long WORK = 1L << 26;
+  private static double sink = 0;
+
+  public static void main(String[] args) {
+    int length = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 16;
+    int minsup = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 10;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    SupportKernel scalar = new SupportKernel();
+    SupportKernel kernel = SupportKernel.get();
+    Random random = new Random(1);
+
+    double[] column = new double[length];
+    int[] positions = new int[length];
+    double[] products = new double[length];
+    for (int j = 0; j < length; j++) {
+      column[j] = random.nextDouble();
+      positions[j] = random.nextInt(length);
+    }
+    // The positions in the list of an item grow with the transactions.
+    Arrays.sort(positions);
+
+    System.out.println("Kernel: " + kernel.name());
+    for (int round = 0; round < rounds; round++) {
+      long multiplyScalar = timeMultiply(scalar, products, column, positions, length);
+      long multiplyKernel = timeMultiply(kernel, products, column, positions, length);
+      long sumScalar = timeSum(scalar, column, length);
+      long sumKernel = timeSum(kernel, column, length);
+      long stepScalar = timeStep(scalar, column, minsup);
+      long stepKernel = timeStep(kernel, column, minsup);
+
+      System.out.printf("Round %d: multiply %.2fx, sum %.2fx, step %.2fx\n", round,
+          (double) multiplyScalar / multiplyKernel, (double) sumScalar / sumKernel,
+          (double) stepScalar / stepKernel);
+    }
+    if (sink == 42)
+      System.out.println();
+  }
+
+  private static long timeMultiply(SupportKernel kernel, double[] products, double[] column, int[] positions,
+      int length) {
+    long start = System.nanoTime();
+
+    for (long repeat = WORK / length; repeat >= 0; repeat--) {
+      Arrays.fill(products, 0, length, 1);
+      kernel.multiply(products, column, positions, length);
+      sink += products[0];
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static long timeSum(SupportKernel kernel, double[] values, int length) {
+    long start = System.nanoTime();
+
+    for (long repeat = WORK / length; repeat >= 0; repeat--)
+      sink += kernel.sum(values, length);
+    return System.nanoTime() - start;
+  }
+
+  private static long timeStep(SupportKernel kernel, double[] probabilities, int minsup) {
+    double[] P = new double[minsup + 1];
+    long start = System.nanoTime();
+
+    for (long repeat = WORK / ((long) probabilities.length * minsup); repeat >= 0; repeat--) {
+      Arrays.fill(P, 0);
+      P[0] = 1;
+      for (int k = 0; k < probabilities.length; k++)
+        kernel.step(P, Math.min(k + 1, minsup), probabilities[k]);
+      sink += P[minsup];
+    }
+    return System.nanoTime() - start;
+  }
+}
@@ -0,0 +1,291 @@
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * This class is the bitmap layout of the transactions of a dense database:
+ * each transaction is a row of words() longs, with bit (item & 63) of word
+ * (item >>> 6) set if it contains the item, and the probabilities of its
+ * items are kept in a parallel array in the order of the bits.
+ *
+ * The items of an itemset are then found in a transaction by AND-comparing
+ * the mask of the itemset with the row, and the probability of an item is at
+ * the rank of its bit in the row. wPFIApriori.supportList scans the rows in
+ * place of intersecting the lists of the vertical index, and LevelCounter
+ * reads the items of a transaction from its row.
+ *
+ * A database uses this layout when it is dense, with transactions at least
+ * MIN_DENSITY of the items long: its rows then take at most half the space
+ * of the 4-byte item ids they replace. The rows and the probabilities must
+ * also fit in arrays of MAX_LENGTH entries, which appendTransaction keeps
+ * checking as the database grows.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see UncertainDatabase
+ * @see VerticalIndex
+ */
+class TransactionBitmap {
+  static final double MIN_DENSITY = 1.0 / 16;
+
+  /**
+   * Databases of more items than MAX_ITEMS keep the sparse layout.
+   */
+  static final int MAX_ITEMS = 1 << 12;
+
+  /**
+   * The largest length of the arrays of the layout, below the array size
+   * limit of the VM.
+   */
+  static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+  private int size;
+  private final int words;
+  private long[] bits;
+  private int[] offsets;
+  private double[] probabilities;
+  private double[] row;
+
+  /**
+   * Check if a database is dense enough for the bitmap layout.
+   *
+   * @param database the database, with dense item ids
+   * @return true if it is, otherwise false.
+   */
+  static boolean isDense(UncertainDatabase database) {
+    int itemCount = database.getDictionary().size();
+
+    if (itemCount == 0 || itemCount > MAX_ITEMS)
+      return false;
+    if (!fits(Math.max(16, database.size()), (itemCount + 63) >>> 6, database.getTransactionSize()))
+      return false;
+    return database.getTransactionSize() / itemCount >= MIN_DENSITY;
+  }
+
+  /**
+   * Check if the rows and the probabilities of some transactions fit in
+   * arrays of MAX_LENGTH entries.
+   */
+  private static boolean fits(long rows, int words, double transactionSize) {
+    return rows * words <= MAX_LENGTH && Math.ceil(rows * transactionSize) <= MAX_LENGTH;
+  }
+
+  /**
+   * Build the bitmap of a database.
+   *
+   * @param database the database, with dense item ids
+   */
+  public TransactionBitmap(UncertainDatabase database) {
+    int itemCount = database.getDictionary().size();
+    words = Math.max(1, (itemCount + 63) >>> 6);
+    row = new double[words << 6];
+
+    int capacity = Math.max(16, database.size());
+    bits = new long[(int) ((long) capacity * words)];
+    offsets = new int[capacity + 1];
+    probabilities = new double[(int) Math.max(16, Math.ceil(capacity * database.getTransactionSize()))];
+
+    for (int tid = 0; tid < database.size(); tid++) {
+      add(database, tid);
+    }
+  }
+
+  /**
+   * Check if this bitmap can follow a database, that is if the rows still
+   * have a bit for every item, and one more row and its probabilities still
+   * fit in arrays of MAX_LENGTH entries.
+   *
+   * @param database the database of this bitmap
+   * @return true if appendTransaction can be used, otherwise false.
+   */
+  public boolean canAppend(UncertainDatabase database) {
+    if (database.getDictionary().size() > words << 6)
+      return false;
+    return (long) (size + 1) * words <= MAX_LENGTH && (long) offsets[size] + (words << 6) <= MAX_LENGTH;
+  }
+
+  /**
+   * Add a transaction appended to the database.
+   *
+   * @param database the database of this bitmap
+   * @param tid      the index of the appended transaction, equal to the
+   *                 number of transactions already in the bitmap
+   */
+  public void appendTransaction(UncertainDatabase database, int tid) {
+    if (tid + 1 >= offsets.length) {
+      int capacity = (int) Math.min(MAX_LENGTH / words, 2L * (offsets.length - 1));
+      bits = Arrays.copyOf(bits, capacity * words);
+      offsets = Arrays.copyOf(offsets, capacity + 1);
+    }
+    add(database, tid);
+  }
+
+  private void add(UncertainDatabase database, int tid) {
+    int base = tid * words;
+    TransactionStore store = database.getStore();
+
+    if (store != null) {
+      for (long position = store.start(tid); position < store.end(tid); position++) {
+        int item = store.item(position);
+        bits[base + (item >>> 6)] |= 1L << item;
+        row[item] = store.probability(position);
+      }
+    } else {
+      HashSet<wPFIItem> transaction = database.getTransactions().get(tid);
+
+      for (wPFIItem item : transaction) {
+        bits[base + (item.getId() >>> 6)] |= 1L << item.getId();
+        row[item.getId()] = item.getProbability();
+      }
+    }
+
+    int offset = offsets[tid];
+    int count = 0;
+    for (int w = 0; w < words; w++)
+      count += Long.bitCount(bits[base + w]);
+    if (offset + count > probabilities.length) {
+      long length = Math.max(offset + count, 2L * probabilities.length);
+      probabilities = Arrays.copyOf(probabilities, (int) Math.min(MAX_LENGTH, length));
+    }
+
+    for (int w = 0; w < words; w++) {
+      for (long word = bits[base + w]; word != 0; word &= word - 1) {
+        int item = (w << 6) + Long.numberOfTrailingZeros(word);
+        probabilities[offset++] = row[item];
+      }
+    }
+    offsets[tid + 1] = offset;
+    size = tid + 1;
+  }
+
+  /**
+   * Get the number of transactions.
+   *
+   * @return int
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the number of words of a row.
+   *
+   * @return int
+   */
+  public int words() {
+    return words;
+  }
+
+  /**
+   * Build the mask of an itemset, a row with the bits of its items.
+   *
+   * @param itemset a wPFIItemset, whose items have a bit in the rows
+   * @return long[]
+   */
+  public long[] mask(wPFIItemset itemset) {
+    long[] mask = new long[words];
+
+    for (int i = 0; i < itemset.size(); i++)
+      mask[itemset.get(i) >>> 6] |= 1L << itemset.get(i);
+    return mask;
+  }
+
+  /**
+   * Calculate the probability of an itemset in a transaction.
+   *
+   * @param tid     the index of the transaction
+   * @param itemset a wPFIItemset
+   * @param mask    the mask of the itemset
+   * @return the product of the probabilities of its items, or 0 if the
+   *         transaction does not contain them all.
+   */
+  public double probability(int tid, wPFIItemset itemset, long[] mask) {
+    int base = tid * words;
+
+    for (int w = 0; w < words; w++) {
+      if ((bits[base + w] & mask[w]) != mask[w])
+        return 0;
+    }
+    return product(base, offsets[tid], itemset);
+  }
+
+  /**
+   * Find the transactions that contain an itemset, and its probability in
+   * each of them, by comparing its mask with every row. The probabilities
+   * are multiplied in the order of the items, as in VerticalIndex.intersect.
+   *
+   * @param itemset  a wPFIItemset, whose items have a bit in the rows
+   * @param tids     receives the indices of the transactions, in order
+   * @param products receives the probability of the itemset in each
+   *                 transaction
+   * @return the number of transactions found.
+   */
+  public int intersect(wPFIItemset itemset, int[] tids, double[] products) {
+    long[] mask = mask(itemset);
+    int count = itemset.size();
+    int[] itemWords = new int[count];
+    long[] below = new long[count];
+    int[] ranks = new int[words];
+    int found = 0;
+
+    for (int i = 0; i < count; i++) {
+      itemWords[i] = itemset.get(i) >>> 6;
+      below[i] = (1L << itemset.get(i)) - 1;
+    }
+
+    for (int tid = 0, base = 0; tid < size; tid++, base += words) {
+      int w = 0;
+
+      while (w < words && (bits[base + w] & mask[w]) == mask[w])
+        w++;
+      if (w < words)
+        continue;
+
+      ranks[0] = offsets[tid];
+      for (w = 1; w < words; w++)
+        ranks[w] = ranks[w - 1] + Long.bitCount(bits[base + w - 1]);
+
+      double probability = 1;
+      for (int i = 0; i < count; i++)
+        probability *= probabilities[ranks[itemWords[i]] + Long.bitCount(bits[base + itemWords[i]] & below[i])];
+      tids[found] = tid;
+      products[found++] = probability;
+    }
+    return found;
+  }
+
+  /**
+   * Get the items of a transaction in ascending order, and their
+   * probabilities.
+   *
+   * @param tid           the index of the transaction
+   * @param items         receives the dense ids of the items
+   * @param probabilities receives the probabilities of the items
+   * @return the number of items.
+   */
+  public int row(int tid, int[] items, double[] probabilities) {
+    int base = tid * words;
+    int length = offsets[tid + 1] - offsets[tid];
+
+    System.arraycopy(this.probabilities, offsets[tid], probabilities, 0, length);
+    for (int w = 0, i = 0; w < words; w++) {
+      for (long word = bits[base + w]; word != 0; word &= word - 1)
+        items[i++] = (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+    return length;
+  }
+
+  private double product(int base, int rank, wPFIItemset itemset) {
+    double probability = 1;
+    int counted = 0;
+
+    for (int i = 0; i < itemset.size(); i++) {
+      int item = itemset.get(i);
+      int w = item >>> 6;
+
+      for (; counted < w; counted++)
+        rank += Long.bitCount(bits[base + counted]);
+      probability *= probabilities[rank + Long.bitCount(bits[base + w] & (1L << item) - 1)];
+    }
+    return probability;
+  }
+}
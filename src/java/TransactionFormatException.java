@@ -0,0 +1,49 @@
+import java.io.IOException;
+
+/**
+ * This exception is thrown when a transaction file has a malformed token.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see TransactionParser
+ */
+class TransactionFormatException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  private final long line;
+  private final long column;
+  private final String reason;
+
+  /**
+   * Constructor
+   *
+   * @param line   the line of the token, starting from 1
+   * @param column the column of the malformed byte, starting from 1
+   * @param reason the description of the error
+   */
+  public TransactionFormatException(long line, long column, String reason) {
+    super("line " + line + ", column " + column + ": " + reason);
+    this.line = line;
+    this.column = column;
+    this.reason = reason;
+  }
+
+  public long getLine() {
+    return line;
+  }
+
+  public long getColumn() {
+    return column;
+  }
+
+  /**
+   * Get the same error for a parser which started after some lines of the
+   * file.
+   *
+   * @param lines the number of lines before the parsed input
+   * @return a TransactionFormatException
+   */
+  public TransactionFormatException shiftLines(long lines) {
+    return new TransactionFormatException(line + lines, column, reason);
+  }
+}
@@ -0,0 +1,314 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class parses the bytes of a transaction file into transactions of
+ * item ids. The bytes may be fed in several blocks, the parser keeps its state
+ * between them.
+ *
+ * A transaction is a line of item ids separated by spaces, or, in the
+ * probabilistic format, a line of "(id,probability)" tokens. Items with a
+ * probability of 0 are dropped. Lines which are empty or start with '#', '%'
+ * or '@' are skipped.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see UncertainDatabase
+ * @see MappedTransactionLoader
+ */
+class TransactionParser {
+  /**
+   * Receive the parsed transactions.
+   */
+  interface Sink {
+    /**
+     * Receive a transaction. The arrays are reused by the parser. In the plain
+     * format, probabilities is a scratch array of at least length entries for
+     * the sink to fill.
+     *
+     * @param items         the item ids of the transaction
+     * @param probabilities the existential probabilities of the items
+     * @param length        the number of items
+     * @return false to stop parsing, otherwise true.
+     */
+    boolean transaction(int[] items, double[] probabilities, int length);
+  }
+
+  /**
+   * The states of a "(id,probability)" token.
+   */
+  private static final int BETWEEN_TOKENS = 0;
+  private static final int IN_ID = 1;
+  private static final int IN_INTEGER_PART = 2;
+  private static final int IN_FRACTION = 3;
+  private static final int AFTER_TOKEN = 4;
+
+  /**
+   * Decimals with at most MAX_EXACT_DIGITS digits are parsed as
+   * digits / 10^fractionDigits, which rounds exactly like Double.parseDouble.
+   */
+  private static final int MAX_EXACT_DIGITS = 15;
+  private static final double[] POWERS_OF_TEN = new double[23];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++)
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+  }
+
+  private final boolean hasProbability;
+  private final Sink sink;
+  private int[] items = new int[64];
+  private double[] probabilities = new double[64];
+  private int length = 0;
+
+  private long line = 1;
+  private long column = 0;
+
+  private long value = 0;
+  private boolean inToken = false;
+  private boolean negative = false;
+  private boolean lineStart = true;
+  private boolean lineHasContent = false;
+  private boolean skipping = false;
+  private boolean stopped = false;
+
+  private int state = BETWEEN_TOKENS;
+  private int id = 0;
+  private int digits = 0;
+  private int fractionDigits = 0;
+  private final StringBuilder decimal = new StringBuilder();
+
+  /**
+   * Constructor
+   *
+   * @param hasProbability whether the tokens are "(id,probability)" pairs
+   * @param sink           the receiver of the parsed transactions
+   */
+  public TransactionParser(boolean hasProbability, Sink sink) {
+    this.hasProbability = hasProbability;
+    this.sink = sink;
+  }
+
+  /**
+   * Check if the sink asked to stop parsing.
+   *
+   * @return true if stopped, otherwise false.
+   */
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * Parse the remaining bytes of a buffer.
+   *
+   * @param buffer the bytes to parse
+   * @throws TransactionFormatException if a token is malformed.
+   */
+  public void parse(ByteBuffer buffer) throws TransactionFormatException {
+    int limit = buffer.limit();
+
+    for (int i = buffer.position(); i < limit && !stopped; i++)
+      accept(buffer.get(i));
+    buffer.position(limit);
+  }
+
+  /**
+   * Parse a block of bytes.
+   *
+   * @param bytes  the bytes to parse
+   * @param offset the index of the first byte
+   * @param count  the number of bytes
+   * @throws TransactionFormatException if a token is malformed.
+   */
+  public void parse(byte[] bytes, int offset, int count) throws TransactionFormatException {
+    int end = offset + count;
+
+    for (int i = offset; i < end && !stopped; i++)
+      accept(bytes[i]);
+  }
+
+  /**
+   * Finish the last line if the input does not end with a new line.
+   *
+   * @throws TransactionFormatException if the last token is malformed.
+   */
+  public void finish() throws TransactionFormatException {
+    if (!stopped && lineHasContent && !skipping)
+      endLine();
+  }
+
+  private void accept(byte b) throws TransactionFormatException {
+    column++;
+
+    if (b == '\n') {
+      if (skipping || !lineHasContent)
+        resetLine();
+      else
+        endLine();
+
+      line++;
+      column = 0;
+      return;
+    }
+
+    if (skipping)
+      return;
+
+    if (b != '\r')
+      lineHasContent = true;
+
+    if (lineStart && b != '\r') {
+      lineStart = false;
+
+      if (b == '#' || b == '%' || b == '@') {
+        skipping = true;
+        return;
+      }
+    }
+
+    if (hasProbability)
+      acceptProbabilistic(b);
+    else
+      acceptPlain(b);
+  }
+
+  private void acceptPlain(byte b) throws TransactionFormatException {
+    if (b >= '0' && b <= '9') {
+      value = value * 10 + (b - '0');
+      inToken = true;
+      digits++;
+
+      if (value > Integer.MAX_VALUE + 1L)
+        throw error("item id is too large");
+    } else if (b == '-' && !inToken) {
+      negative = true;
+      inToken = true;
+    } else if (b == ' ' || b == '\t' || b == '\r') {
+      endPlainToken();
+    } else {
+      throw error("unexpected character '" + (char) b + "'");
+    }
+  }
+
+  private void endPlainToken() throws TransactionFormatException {
+    if (!inToken)
+      return;
+    if (digits == 0)
+      throw error("expected an item id after '-'");
+
+    long item = negative ? -value : value;
+    if (item > Integer.MAX_VALUE)
+      throw error("item id is too large");
+    addItem((int) item, 0);
+
+    value = 0;
+    digits = 0;
+    inToken = false;
+    negative = false;
+  }
+
+  private void acceptProbabilistic(byte b) throws TransactionFormatException {
+    switch (state) {
+      case BETWEEN_TOKENS:
+        if (b == '(')
+          state = IN_ID;
+        else if (b != ' ' && b != '\t' && b != '\r')
+          throw error("expected '(' but found '" + (char) b + "'");
+        return;
+
+      case IN_ID:
+        if (b >= '0' && b <= '9') {
+          value = value * 10 + (b - '0');
+          digits++;
+
+          if (value > Integer.MAX_VALUE)
+            throw error("item id is too large");
+        } else if (b == ',' && digits > 0) {
+          id = (int) value;
+          value = 0;
+          digits = 0;
+          state = IN_INTEGER_PART;
+        } else
+          throw error(digits == 0 ? "expected an item id" : "expected ',' after the item id");
+        return;
+
+      case IN_INTEGER_PART:
+      case IN_FRACTION:
+        if (b >= '0' && b <= '9') {
+          if (digits < MAX_EXACT_DIGITS)
+            value = value * 10 + (b - '0');
+          digits++;
+          decimal.append((char) b);
+
+          if (state == IN_FRACTION)
+            fractionDigits++;
+        } else if (b == '.' && state == IN_INTEGER_PART && digits > 0) {
+          decimal.append('.');
+          state = IN_FRACTION;
+        } else if (b == ')' && digits > 0 && (state == IN_INTEGER_PART || fractionDigits > 0)) {
+          double probability = digits <= MAX_EXACT_DIGITS && fractionDigits < POWERS_OF_TEN.length
+              ? value / POWERS_OF_TEN[fractionDigits]
+              : Double.parseDouble(decimal.toString());
+
+          if (probability > 1)
+            throw error("probability " + decimal + " is greater than 1");
+          if (probability != 0)
+            addItem(id, probability);
+
+          value = 0;
+          digits = 0;
+          fractionDigits = 0;
+          decimal.setLength(0);
+          state = AFTER_TOKEN;
+        } else
+          throw error("malformed probability");
+        return;
+
+      default:
+        if (b == ' ' || b == '\t' || b == '\r')
+          state = BETWEEN_TOKENS;
+        else
+          throw error("expected a space after ')'");
+    }
+  }
+
+  private void addItem(int item, double probability) {
+    if (length == items.length) {
+      items = Arrays.copyOf(items, items.length * 2);
+      probabilities = Arrays.copyOf(probabilities, probabilities.length * 2);
+    }
+    items[length] = item;
+    probabilities[length++] = probability;
+  }
+
+  private void endLine() throws TransactionFormatException {
+    if (hasProbability) {
+      if (state != BETWEEN_TOKENS && state != AFTER_TOKEN)
+        throw error("unterminated token");
+    } else
+      endPlainToken();
+
+    stopped = !sink.transaction(items, probabilities, length);
+    resetLine();
+  }
+
+  private void resetLine() {
+    length = 0;
+    value = 0;
+    inToken = false;
+    negative = false;
+    lineStart = true;
+    lineHasContent = false;
+    skipping = false;
+
+    state = BETWEEN_TOKENS;
+    digits = 0;
+    fractionDigits = 0;
+    decimal.setLength(0);
+  }
+
+  private TransactionFormatException error(String reason) {
+    return new TransactionFormatException(line, column, reason);
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Interface for the compact storage of the transactions of an uncertain
+ * database. The entries of all transactions are laid out one after another,
+ * transaction tid owns the positions start(tid) .. end(tid) - 1, and the items
+ * of a transaction are sorted by id and distinct.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see ChunkedTransactionStore
+ * @see MappedTransactionStore
+ */
+interface TransactionStore {
+  /**
+   * Get the number of transactions.
+   *
+   * @return int
+   */
+  int size();
+
+  /**
+   * Get the number of (transaction, item) entries.
+   *
+   * @return long
+   */
+  long entryCount();
+
+  /**
+   * Get the position of the first entry of a transaction.
+   *
+   * @param tid the index of the transaction
+   * @return long
+   */
+  long start(int tid);
+
+  /**
+   * Get the position after the last entry of a transaction.
+   *
+   * @param tid the index of the transaction
+   * @return long
+   */
+  long end(int tid);
+
+  /**
+   * Get the item id at a position.
+   *
+   * @param position the position of the entry
+   * @return int
+   */
+  int item(long position);
+
+  /**
+   * Get the existential probability at a position.
+   *
+   * @param position the position of the entry
+   * @return double
+   */
+  double probability(long position);
+
+  /**
+   * Get the number of items of a transaction.
+   *
+   * @param tid the index of the transaction
+   * @return int
+   */
+  default int length(int tid) {
+    return (int) (end(tid) - start(tid));
+  }
+
+  /**
+   * Get the existential probability of an item in a transaction.
+   *
+   * @param tid    the index of the transaction
+   * @param itemId the id of the item
+   * @return the probability, or 0 if the item is not in the transaction.
+   */
+  default double probabilityOf(int tid, int itemId) {
+    long low = start(tid);
+    long high = end(tid) - 1;
+
+    while (low <= high) {
+      long middle = (low + high) >>> 1;
+      int item = item(middle);
+
+      if (item < itemId)
+        low = middle + 1;
+      else if (item > itemId)
+        high = middle - 1;
+      else
+        return probability(middle);
+    }
+    return 0;
+  }
+}
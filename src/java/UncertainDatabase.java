@@ -5,9 +5,6 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Random;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * This class represents an uncertain database with existential probabilities,
@@ -27,24 +24,212 @@ class UncertainDatabase {
   HashSet<wPFIItem> allItems = new HashSet<wPFIItem>();
   ArrayList<HashSet<wPFIItem>> transactions = new ArrayList<>();
 
+  /**
+   * The compact storage of the transactions, used instead of the list of
+   * transactions when the database is loaded by loadFileStreaming.
+   */
+  TransactionStore store = null;
+
+  /**
+   * The item ids in the transactions and in allItems are dense ids, the
+   * dictionary maps them back to the ids of the file.
+   */
+  ItemDictionary dictionary = new ItemDictionary(new int[0]);
+
+  /**
+   * The vertical layout of the transactions, built on first use.
+   */
+  VerticalIndex verticalIndex = null;
+
+  /**
+   * The bitmap layout of the transactions, built on first use if the
+   * database is dense.
+   */
+  TransactionBitmap transactionBitmap = null;
+
+  /**
+   * The expected support of each item, summed on first use when the vertical
+   * index is not built.
+   */
+  double[] itemSupports = null;
+
+  /**
+   * The maximum number of transactions to load, UNLIMITED to load the whole
+   * file.
+   */
+  static final int UNLIMITED = 0;
+  static final String CACHE_SUFFIX = ".wpfi";
+  static final int DEFAULT_MAX_SIZE = 10000;
+  int maxSize = DEFAULT_MAX_SIZE;
+
+  /**
+   * The generator of the existential probabilities of files without
+   * probabilities. Unless a seed is set, every database draws a new one.
+   */
+  ProbabilityGenerator generator = new ProbabilityGenerator(System.nanoTime());
+  boolean seeded = false;
+
+  /**
+   * Whether loadFileStreaming keeps the probabilities as one-byte codes.
+   */
+  boolean quantized = false;
+  double[] scratch = new double[64];
+  int[] itemScratch = new int[64];
+
   /**
    * Get the database size.
    *
    * @return int
    */
   public int size() {
+    if (store != null)
+      return store.size();
     return transactions.size();
   }
 
   /**
-   * Get the list of transactions.
+   * Get the list of transactions. If the database is stored compactly, the
+   * list is built from the store on the first call.
    *
    * @return the list of Transactions.
    */
   public ArrayList<HashSet<wPFIItem>> getTransactions() {
+    if (store != null && transactions.size() != store.size()) {
+      transactions.clear();
+
+      for (int tid = 0; tid < store.size(); tid++) {
+        HashSet<wPFIItem> transaction = new HashSet<>();
+
+        for (long position = store.start(tid); position < store.end(tid); position++)
+          transaction.add(new wPFIItem(store.item(position), store.probability(position)));
+        transactions.add(transaction);
+      }
+    }
     return transactions;
   }
 
+  /**
+   * Get the compact storage of the transactions.
+   *
+   * @return the store, or null if the database is stored as a list of
+   *         transactions.
+   */
+  public TransactionStore getStore() {
+    return store;
+  }
+
+  /**
+   * Get the dictionary between the dense item ids of this database and the
+   * item ids of the file.
+   *
+   * @return an ItemDictionary
+   */
+  public ItemDictionary getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * Get the vertical index of this database. The index is built on the first
+   * call.
+   *
+   * @return a VerticalIndex
+   */
+  public VerticalIndex getVerticalIndex() {
+    if (verticalIndex == null)
+      verticalIndex = new VerticalIndex(this);
+    return verticalIndex;
+  }
+
+  /**
+   * Get the expected support of an item, from the vertical index if it is
+   * built. Otherwise the expected supports of all the items are summed in
+   * one pass on the first call, without building the index.
+   *
+   * @param item the dense id of the item
+   * @return double
+   */
+  public double getExpectedSupport(int item) {
+    if (verticalIndex != null)
+      return verticalIndex.expectedSupport(item);
+    if (itemSupports == null)
+      itemSupports = LevelCounter.itemSupports(this);
+    return itemSupports[item];
+  }
+
+  /**
+   * Check if the vertical index of this database is built.
+   *
+   * @return true if it is, otherwise false.
+   */
+  public boolean hasVerticalIndex() {
+    return verticalIndex != null;
+  }
+
+  /**
+   * Get the bitmap layout of this database if it is dense, measured by the
+   * average transaction size over the number of items. The bitmap is built
+   * on the first call.
+   *
+   * @return a TransactionBitmap, or null if the database is not dense.
+   */
+  public TransactionBitmap getTransactionBitmap() {
+    if (transactionBitmap == null && TransactionBitmap.isDense(this))
+      transactionBitmap = new TransactionBitmap(this);
+    return transactionBitmap;
+  }
+
+  /**
+   * Set the maximum number of transactions to load.
+   *
+   * @param maxSize the number of transactions, or UNLIMITED.
+   */
+  public void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Set the seed of the existential probabilities, so the same file always
+   * gives the same database.
+   *
+   * @param seed the seed
+   */
+  public void setSeed(long seed) {
+    generator = new ProbabilityGenerator(seed);
+    seeded = true;
+  }
+
+  public long getSeed() {
+    return generator.getSeed();
+  }
+
+  public boolean isSeeded() {
+    return seeded;
+  }
+
+  /**
+   * Keep the probabilities of the compact store and of the vertical index as
+   * one-byte codes into a table of up to 256 levels, which is enough for the
+   * generated probabilities. This only applies to loadFileStreaming and to
+   * loadFileCached when it rebuilds the cache.
+   *
+   * @param quantized whether probabilities are quantized
+   */
+  public void setQuantized(boolean quantized) {
+    this.quantized = quantized;
+  }
+
+  public boolean isQuantized() {
+    return quantized;
+  }
+
+  private boolean reachedMaxSize(int lineCount) {
+    return maxSize != UNLIMITED && lineCount >= maxSize;
+  }
+
   /**
    * Get the set of items in this database.
    *
@@ -65,9 +250,13 @@ class UncertainDatabase {
    * @throws IOException exception if error while reading the file.
    */
   public void loadFile(String path, boolean hasProbability) throws IOException {
+    if (hasProbability) {
+      loadFileMapped(path, hasProbability, 1);
+      return;
+    }
+
     String thisLine;
     BufferedReader myInput = null;
-    int maxSize = 10000;
     int lineCount = 0;
 
     try {
@@ -82,13 +271,10 @@ class UncertainDatabase {
           continue;
         }
 
-        if (hasProbability)
-          processTransactionsWithProbability(thisLine.split(" "));
-        else
-          processTransactions(thisLine.split(" "));
+        processTransactions(thisLine.split(" "));
 
         lineCount++;
-        if (lineCount >= maxSize)
+        if (reachedMaxSize(lineCount))
           break;
       }
     } catch (Exception e) {
@@ -99,24 +285,292 @@ class UncertainDatabase {
       }
     }
 
+    encodeItems();
     transactionSize /= transactions.size();
     printDatabaseProperties(path);
   }
 
   /**
-   * Process a transaction from a list of items, then add it to the
+   * Load a transaction database from a file by memory-mapping it and parsing
+   * it on several threads. The loaded transactions are the same as the ones
+   * loaded by loadFile. The parsing stops after maxSize transactions, so the
+   * probabilities are only drawn for those.
+   *
+   * @param path    the directory of the file
+   * @param threads the number of parsing threads
+   * @throws IOException exception if error while reading the file.
+   */
+  public void loadFileMapped(String path, boolean hasProbability, int threads) throws IOException {
+    int lineCount = 0;
+    ArrayList<MappedTransactionLoader.Chunk> chunks = MappedTransactionLoader.parse(path, hasProbability, threads,
+        maxSize);
+
+    if (!hasProbability)
+      MappedTransactionLoader.assignProbabilities(chunks, generator, threads);
+
+    for (MappedTransactionLoader.Chunk chunk : chunks) {
+      for (int line = 0; line < chunk.lineCount && !reachedMaxSize(lineCount); line++) {
+        processTransactions(chunk.items, chunk.probabilities, chunk.start(line), chunk.ends[line]);
+        lineCount++;
+      }
+    }
+
+    encodeItems();
+    transactionSize /= transactions.size();
+    printDatabaseProperties(path);
+  }
+
+  /**
+   * Load a transaction database from a file into a compact store. The file is
+   * streamed in blocks, so no list of transactions is built, and the load is
+   * only limited by maxSize.
+   *
+   * @param path the directory of the file
+   * @throws IOException exception if error while reading the file.
+   */
+  public void loadFileStreaming(String path, boolean hasProbability) throws IOException {
+    long startTime = System.nanoTime();
+    File file = new File(path);
+    ChunkedTransactionStore target = new ChunkedTransactionStore(quantized);
+    store = target;
+    transactions.clear();
+
+    try (FileInputStream fin = new FileInputStream(file)) {
+      streamTransactions(fin, target, hasProbability);
+    } catch (TransactionFormatException e) {
+      throw new IOException(path + ": " + e.getMessage(), e);
+    }
+
+    encodeItems();
+    transactionSize = store.size() == 0 ? 0 : (double) store.entryCount() / store.size();
+    printDatabaseProperties(path);
+    printLoadThroughput(file.length(), System.nanoTime() - startTime);
+  }
+
+  /**
+   * Load a transaction database from its binary cache file, path + CACHE_SUFFIX.
+   * If the cache is missing or older than the file, the file is loaded by
+   * loadFileStreaming and the cache is written again.
+   *
+   * @param path the directory of the file
+   * @throws IOException exception if error while reading the file.
+   */
+  public void loadFileCached(String path, boolean hasProbability) throws IOException {
+    long startTime = System.nanoTime();
+    File file = new File(path);
+    File cache = new File(path + CACHE_SUFFIX);
+    MappedTransactionStore cached = MappedTransactionStore.open(cache, file, maxSize, hasProbability,
+        seeded ? generator : null);
+
+    if (cached == null) {
+      loadFileStreaming(path, hasProbability);
+
+      try {
+        MappedTransactionStore.write(cache, file, maxSize, hasProbability, seeded ? generator : null,
+            store, allItems, dictionary);
+      } catch (IOException e) {
+        System.out.println("Cannot write the database cache: " + e.getMessage());
+      }
+      return;
+    }
+
+    store = cached;
+    verticalIndex = null;
+    itemSupports = null;
+    transactionBitmap = null;
+    transactions.clear();
+    allItems = cached.getAllItems();
+    dictionary = cached.getDictionary();
+    transactionSize = store.size() == 0 ? 0 : (double) store.entryCount() / store.size();
+    printDatabaseProperties(cache.getPath());
+    printLoadThroughput(cache.length(), System.nanoTime() - startTime);
+  }
+
+  /**
+   * Append the transactions of a file to this database. The new transactions
+   * get the next indices, and the items seen for the first time get the next
+   * dense ids. The maximum size does not apply to appended transactions.
+   *
+   * @param path the directory of the file
+   * @throws IOException exception if error while reading the file.
+   */
+  public void appendFile(String path, boolean hasProbability) throws IOException {
+    byte[] block = new byte[1 << 20];
+
+    TransactionParser parser = new TransactionParser(hasProbability, (items, probabilities, length) -> {
+      if (!hasProbability)
+        generator.fill(size(), probabilities, 0, length);
+
+      appendTransaction(items, probabilities, length);
+      return true;
+    });
+
+    try (FileInputStream fin = new FileInputStream(new File(path))) {
+      int read;
+      while ((read = fin.read(block)) > 0)
+        parser.parse(block, 0, read);
+      parser.finish();
+    } catch (TransactionFormatException e) {
+      throw new IOException(path + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Append a transaction to this database. Only the first occurrence of a
+   * repeated item is kept. The vertical index and the bitmap, if built, are
+   * updated in place.
+   *
+   * @param items         the item ids, as in the file
+   * @param probabilities the existential probabilities of the items
+   * @param length        the number of items
+   */
+  public void appendTransaction(int[] items, double[] probabilities, int length) {
+    if (itemScratch.length < length)
+      itemScratch = new int[Math.max(length, itemScratch.length * 2)];
+
+    for (int i = 0; i < length; i++) {
+      int itemCount = dictionary.size();
+      itemScratch[i] = dictionary.add(items[i]);
+
+      if (dictionary.size() > itemCount)
+        allItems.add(new wPFIItem(itemScratch[i], probabilities[i]));
+    }
+
+    int tid = size();
+    int added;
+
+    if (store != null) {
+      ChunkedTransactionStore target = toChunkedStore();
+      added = target.add(itemScratch, probabilities, length);
+    } else {
+      HashSet<wPFIItem> transaction = new HashSet<>();
+
+      for (int i = 0; i < length; i++)
+        transaction.add(new wPFIItem(itemScratch[i], probabilities[i]));
+      transactions.add(transaction);
+      added = transaction.size();
+    }
+
+    transactionSize += (added - transactionSize) / (tid + 1);
+
+    if (verticalIndex != null && verticalIndex.canAppend(this))
+      verticalIndex.appendTransaction(this, tid);
+    else
+      verticalIndex = null;
+    itemSupports = null;
+
+    if (transactionBitmap != null && transactionBitmap.canAppend(this))
+      transactionBitmap.appendTransaction(this, tid);
+    else
+      transactionBitmap = null;
+  }
+
+  /**
+   * Get the store as a ChunkedTransactionStore, copying a mapped cache file
+   * into memory so transactions can be appended to it.
+   */
+  private ChunkedTransactionStore toChunkedStore() {
+    if (store instanceof ChunkedTransactionStore)
+      return (ChunkedTransactionStore) store;
+
+    ChunkedTransactionStore target = new ChunkedTransactionStore(quantized);
+    int[] items = new int[64];
+    double[] probabilities = new double[64];
+
+    for (int tid = 0; tid < store.size(); tid++) {
+      int length = store.length(tid);
+
+      if (items.length < length) {
+        items = new int[length];
+        probabilities = new double[length];
+      }
+
+      for (int i = 0; i < length; i++) {
+        items[i] = store.item(store.start(tid) + i);
+        probabilities[i] = store.probability(store.start(tid) + i);
+      }
+      target.add(items, probabilities, length);
+    }
+
+    store = target;
+    verticalIndex = null;
+    return target;
+  }
+
+  private void streamTransactions(FileInputStream fin, ChunkedTransactionStore target, boolean hasProbability)
+      throws IOException {
+    byte[] block = new byte[1 << 20];
+    HashSet<Integer> itemIds = new HashSet<>();
+
+    TransactionParser parser = new TransactionParser(hasProbability, (items, probabilities, length) -> {
+      if (!hasProbability)
+        generator.fill(target.size(), probabilities, 0, length);
+
+      addToStore(target, itemIds, items, probabilities, length);
+      return !reachedMaxSize(target.size());
+    });
+
+    int read;
+    while (!parser.isStopped() && (read = fin.read(block)) > 0)
+      parser.parse(block, 0, read);
+    parser.finish();
+  }
+
+  private void addToStore(
+    ChunkedTransactionStore target,
+    HashSet<Integer> itemIds,
+    int[] items,
+    double[] probabilities,
+    int length
+  ) {
+    target.add(items, probabilities, length);
+
+    for (int i = 0; i < length; i++) {
+      if (itemIds.add(items[i]))
+        allItems.add(new wPFIItem(items[i], probabilities[i]));
+    }
+  }
+
+  /**
+   * Replace the item ids of the loaded transactions by dense ids.
+   */
+  private void encodeItems() {
+    dictionary = ItemDictionary.of(allItems);
+    verticalIndex = null;
+    itemSupports = null;
+    transactionBitmap = null;
+
+    HashSet<wPFIItem> encodedItems = new HashSet<>();
+    for (wPFIItem item : allItems)
+      encodedItems.add(new wPFIItem(dictionary.denseId(item.getId()), item.getProbability()));
+    allItems = encodedItems;
+
+    if (store instanceof ChunkedTransactionStore)
+      ((ChunkedTransactionStore) store).encodeItems(dictionary);
+
+    for (int tid = 0; tid < transactions.size(); tid++) {
+      HashSet<wPFIItem> transaction = new HashSet<>();
+
+      for (wPFIItem item : transactions.get(tid))
+        transaction.add(new wPFIItem(dictionary.denseId(item.getId()), item.getProbability()));
+      transactions.set(tid, transaction);
+    }
+  }
+
+  /**
+   * Process a transaction from a range of parsed item ids, then add it to the
    * transaction list.
    *
-   * @param itemsString the list of items
+   * @param items         the parsed item ids
+   * @param probabilities the probabilities of the parsed items
+   * @param start         the index of the first item of the transaction
+   * @param end           the index after the last item of the transaction
    */
-  public void processTransactions(String itemsString[]) {
+  void processTransactions(int[] items, double[] probabilities, int start, int end) {
     HashSet<wPFIItem> transaction = new HashSet<>();
 
-    for (String itemString : itemsString) {
-      int itemID = Integer.parseInt(itemString);
-      double value = gaussianDistribution();
-
-      wPFIItem item = new wPFIItem(itemID, value);
+    for (int i = start; i < end; i++) {
+      wPFIItem item = new wPFIItem(items[i], probabilities[i]);
       transaction.add(item);
       allItems.add(item);
     }
@@ -124,38 +578,34 @@ class UncertainDatabase {
     transactionSize += transaction.size();
     transactions.add(transaction);
   }
-  
-  public void processTransactionsWithProbability(String itemsString[]) {
+
+  /**
+   * Process a transaction from a list of items, then add it to the
+   * transaction list.
+   *
+   * @param itemsString the list of items
+   */
+  public void processTransactions(String itemsString[]) {
     HashSet<wPFIItem> transaction = new HashSet<>();
-    String pattern = "\\((\\d+),(\\d+\\.\\d+)\\)";
+    int index = 0;
 
-    Pattern p = Pattern.compile(pattern);
+    if (scratch.length < itemsString.length)
+      scratch = new double[Math.max(itemsString.length, scratch.length * 2)];
+    generator.fill(transactions.size(), scratch, 0, itemsString.length);
 
     for (String itemString : itemsString) {
-      try {
-        Matcher matcher = p.matcher(itemString);
-        if (!matcher.find())
-          continue;
-
-        int itemID = Integer.parseInt(matcher.group(1));
-        double value = Double.parseDouble(matcher.group(2));
-
-        if (value == 0)
-          continue;
+      int itemID = Integer.parseInt(itemString);
+      double value = scratch[index++];
 
-        wPFIItem item = new wPFIItem(itemID, value);
-        transaction.add(item);
-        allItems.add(item);
-      } catch (Exception e) {
-        e.printStackTrace();
-        return;
-      }
+      wPFIItem item = new wPFIItem(itemID, value);
+      transaction.add(item);
+      allItems.add(item);
     }
 
     transactionSize += transaction.size();
     transactions.add(transaction);
   }
-
+  
   /**
    * Print this database to System.out.
    */
@@ -163,18 +613,17 @@ class UncertainDatabase {
     System.out.println("===================  UNCERTAIN DATABASE ===================");
     int count = 0;
 
-    for (HashSet<wPFIItem> itemset : transactions) {
+    for (HashSet<wPFIItem> itemset : getTransactions()) {
       System.out.print("0" + count + ":\t");
+      String str = "";
 
-      if (hasProbability) {
-        String str = "";
-
-        for (wPFIItem item : itemset)
-          str += item.toStringWithProbability();
-        System.out.print(str);
-
-      } else
-        System.out.print(itemset.toString());
+      for (wPFIItem item : itemset) {
+        if (hasProbability)
+          str += "(" + dictionary.rawId(item.getId()) + "," + item.getProbability() + ") ";
+        else
+          str += dictionary.rawId(item.getId()) + " ";
+      }
+      System.out.print(str);
 
       System.out.println();
       count++;
@@ -187,27 +636,23 @@ class UncertainDatabase {
   public void printDatabaseProperties(String path) {
     System.out.println("=================== DATABASE PROPERTIES ===================");
     System.out.println("File path: " + path);
-    System.out.println("Database size: " + transactions.size());
+    System.out.println("Database size: " + size());
     System.out.println("Distinct items: " + allItems.size());
+    System.out.printf("Density: %.3f%s\n", allItems.isEmpty() ? 0 : transactionSize / allItems.size(),
+        TransactionBitmap.isDense(this) ? " (bitmap layout)" : "");
   }
 
   /**
-   * Generate a random probability drawn from the Gaussian distribution.
-   * Means is 0.5.
-   * Variance is 0.125.
+   * Print the time taken by the last load and its throughput to System.out.
+   *
+   * @param bytes the size of the loaded file
+   * @param nanos the load time in nanoseconds
    */
-  public static double gaussianDistribution() {
-    Random random = new Random();
-    double prob = random.nextGaussian() * Math.sqrt(0.125) + 0.5;
-
-    prob = Math.round(prob * 10) / (Double) 10.0;
-
-    if (prob > 1)
-      return 1;
-
-    if (prob <= 0)
-      return 0.1;
+  public void printLoadThroughput(long bytes, long nanos) {
+    double seconds = nanos / 1e9;
 
-    return prob;
+    System.out.printf("Load time: %.3fs\n", seconds);
+    System.out.printf("Load throughput: %.0f transactions/s, %.1f MB/s\n",
+        size() / seconds, bytes / seconds / (1 << 20));
   }
 }
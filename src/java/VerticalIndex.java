@@ -0,0 +1,304 @@
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * This class is the vertical layout of an uncertain database: for every item,
+ * the sorted indices of the transactions that contain it and the matching
+ * existential probabilities.
+ *
+ * The transactions that contain an itemset are found by intersecting the
+ * lists of its items, so only those transactions are visited.
+ *
+ * If the database is stored with quantized probabilities, the index keeps the
+ * one-byte codes of the store as well.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see UncertainDatabase
+ */
+class VerticalIndex {
+  private int size;
+  private int[][] tids;
+  private double[][] probabilities;
+  private byte[][] codes;
+  private final ProbabilityLevels levels;
+  private int[] lengths;
+  private double[] expectedSupports;
+
+  /**
+   * Build the index of a database.
+   *
+   * @param database the database, with dense item ids
+   */
+  public VerticalIndex(UncertainDatabase database) {
+    int itemCount = database.getDictionary().size();
+    size = database.size();
+    lengths = new int[itemCount];
+    expectedSupports = new double[itemCount];
+    TransactionStore store = database.getStore();
+
+    if (store != null) {
+      for (long position = 0; position < store.entryCount(); position++)
+        lengths[store.item(position)]++;
+    } else {
+      for (HashSet<wPFIItem> transaction : database.getTransactions()) {
+        for (wPFIItem item : transaction)
+          lengths[item.getId()]++;
+      }
+    }
+
+    ChunkedTransactionStore quantized = store instanceof ChunkedTransactionStore
+        && ((ChunkedTransactionStore) store).isQuantized() ? (ChunkedTransactionStore) store : null;
+
+    tids = new int[itemCount][];
+    probabilities = quantized == null ? new double[itemCount][] : null;
+    codes = quantized == null ? null : new byte[itemCount][];
+    levels = quantized == null ? null : quantized.getLevels();
+
+    for (int i = 0; i < itemCount; i++) {
+      tids[i] = new int[lengths[i]];
+      if (quantized == null)
+        probabilities[i] = new double[lengths[i]];
+      else
+        codes[i] = new byte[lengths[i]];
+      lengths[i] = 0;
+    }
+
+    for (int tid = 0; tid < database.size(); tid++) {
+      add(database, tid);
+    }
+  }
+
+  /**
+   * Check if this index can follow a database. A quantized index needs the
+   * store to still use the codes it was built with.
+   *
+   * @param database the database of this index
+   * @return true if appendTransaction can be used, otherwise false.
+   */
+  public boolean canAppend(UncertainDatabase database) {
+    TransactionStore store = database.getStore();
+
+    if (levels == null)
+      return !(store instanceof ChunkedTransactionStore && ((ChunkedTransactionStore) store).isQuantized());
+    return store instanceof ChunkedTransactionStore && ((ChunkedTransactionStore) store).getLevels() == levels;
+  }
+
+  /**
+   * Add a transaction appended to the database to the lists of its items.
+   *
+   * @param database the database of this index
+   * @param tid      the index of the appended transaction, equal to the
+   *                 number of transactions already indexed
+   */
+  public void appendTransaction(UncertainDatabase database, int tid) {
+    int itemCount = database.getDictionary().size();
+
+    if (itemCount > tids.length) {
+      int oldCount = tids.length;
+      tids = Arrays.copyOf(tids, itemCount);
+      lengths = Arrays.copyOf(lengths, itemCount);
+      expectedSupports = Arrays.copyOf(expectedSupports, itemCount);
+      if (codes != null)
+        codes = Arrays.copyOf(codes, itemCount);
+      else
+        probabilities = Arrays.copyOf(probabilities, itemCount);
+
+      for (int i = oldCount; i < itemCount; i++) {
+        tids[i] = new int[4];
+        if (codes != null)
+          codes[i] = new byte[4];
+        else
+          probabilities[i] = new double[4];
+      }
+    }
+
+    TransactionStore store = database.getStore();
+    if (store != null) {
+      for (long position = store.start(tid); position < store.end(tid); position++) {
+        int item = store.item(position);
+
+        if (lengths[item] == tids[item].length) {
+          tids[item] = Arrays.copyOf(tids[item], lengths[item] * 2 + 4);
+          if (codes != null)
+            codes[item] = Arrays.copyOf(codes[item], tids[item].length);
+          else
+            probabilities[item] = Arrays.copyOf(probabilities[item], tids[item].length);
+        }
+      }
+    } else {
+      for (wPFIItem item : database.getTransactions().get(tid)) {
+        int id = item.getId();
+
+        if (lengths[id] == tids[id].length) {
+          tids[id] = Arrays.copyOf(tids[id], lengths[id] * 2 + 4);
+          probabilities[id] = Arrays.copyOf(probabilities[id], tids[id].length);
+        }
+      }
+    }
+
+    add(database, tid);
+    size++;
+  }
+
+  private void add(UncertainDatabase database, int tid) {
+    TransactionStore store = database.getStore();
+
+    if (codes != null) {
+      ChunkedTransactionStore quantized = (ChunkedTransactionStore) store;
+
+      for (long position = store.start(tid); position < store.end(tid); position++) {
+        int item = store.item(position);
+        tids[item][lengths[item]] = tid;
+        codes[item][lengths[item]] = quantized.code(position);
+        expectedSupports[item] += probability(item, lengths[item]++);
+      }
+    } else if (store != null) {
+      for (long position = store.start(tid); position < store.end(tid); position++)
+        add(store.item(position), tid, store.probability(position));
+    } else {
+      for (wPFIItem item : database.getTransactions().get(tid))
+        add(item.getId(), tid, item.getProbability());
+    }
+  }
+
+  private void add(int item, int tid, double probability) {
+    tids[item][lengths[item]] = tid;
+    probabilities[item][lengths[item]++] = probability;
+    expectedSupports[item] += probability;
+  }
+
+  /**
+   * Get the number of transactions that contain an item.
+   *
+   * @param item the dense id of the item
+   * @return int
+   */
+  public int length(int item) {
+    return lengths[item];
+  }
+
+  /**
+   * Get the expected support of an item, the sum of its probabilities in the
+   * order of its list.
+   *
+   * @param item the dense id of the item
+   * @return double
+   */
+  public double expectedSupport(int item) {
+    return expectedSupports[item];
+  }
+
+  /**
+   * Get the sorted indices of the transactions that contain an item. Only the
+   * first length(item) entries are used.
+   *
+   * @param item the dense id of the item
+   * @return an array of transaction indices
+   */
+  public int[] tids(int item) {
+    return tids[item];
+  }
+
+  /**
+   * Get the probability of an item in the transaction tids(item)[index].
+   *
+   * @param item  the dense id of the item
+   * @param index the index in the list of the item
+   * @return double
+   */
+  public double probability(int item, int index) {
+    if (codes != null)
+      return levels.level(codes[item][index]);
+    return probabilities[item][index];
+  }
+
+  /**
+   * Find the transactions that contain all the given items, and the
+   * probability of the itemset in each of them. The probabilities are
+   * multiplied in the order of items. The empty itemset is in every
+   * transaction with probability 1.
+   *
+   * @param items    the dense ids of the items
+   * @param count    the number of items
+   * @param tids     receives the indices of the transactions, in order; must
+   *                 hold the shortest list of the items, or every transaction
+   *                 for the empty itemset
+   * @param products receives the probability of the itemset in each
+   *                 transaction
+   * @return the number of transactions found.
+   */
+  public int intersect(int[] items, int count, int[] tids, double[] products) {
+    if (count == 0) {
+      for (int j = 0; j < size; j++) {
+        tids[j] = j;
+        products[j] = 1;
+      }
+      return size;
+    }
+
+    int shortest = 0;
+    for (int i = 1; i < count; i++) {
+      if (length(items[i]) < length(items[shortest]))
+        shortest = i;
+    }
+
+    int found = length(items[shortest]);
+    System.arraycopy(this.tids[items[shortest]], 0, tids, 0, found);
+
+    for (int i = 0; i < count && found > 0; i++) {
+      if (i == shortest)
+        continue;
+
+      int[] list = this.tids[items[i]];
+      int listLength = length(items[i]);
+      int kept = 0;
+      int position = 0;
+
+      for (int j = 0; j < found; j++) {
+        int tid = tids[j];
+
+        while (position < listLength && list[position] < tid)
+          position++;
+        if (position == listLength)
+          break;
+        if (list[position] == tid)
+          tids[kept++] = tid;
+      }
+      found = kept;
+    }
+
+    for (int j = 0; j < found; j++)
+      products[j] = 1;
+
+    if (codes == null) {
+      SupportKernel kernel = SupportKernel.get();
+      int[] positions = FrequentnessEngine.get().positions(found);
+
+      for (int i = 0; i < count; i++) {
+        int[] list = this.tids[items[i]];
+        int position = 0;
+
+        for (int j = 0; j < found; j++) {
+          while (list[position] < tids[j])
+            position++;
+          positions[j] = position;
+        }
+        kernel.multiply(products, probabilities[items[i]], positions, found);
+      }
+      return found;
+    }
+
+    for (int i = 0; i < count; i++) {
+      int[] list = this.tids[items[i]];
+      int position = 0;
+
+      for (int j = 0; j < found; j++) {
+        while (list[position] < tids[j])
+          position++;
+        products[j] *= probability(items[i], position);
+      }
+    }
+    return found;
+  }
+}
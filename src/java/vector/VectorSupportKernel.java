@@ -0,0 +1,98 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * This class is the SupportKernel written with the incubating Vector API of
+ * the JDK. It needs --add-modules jdk.incubator.vector to compile and to run,
+ * and SupportKernel loads it by reflection when it can.
+ *
+ * The products and the steps of the dynamic programming are computed lane by
+ * lane with the same operations as the scalar kernel, so they give the same
+ * values. The sum adds one partial sum per lane. The steps of the dynamic
+ * programming with fewer than STEP_MIN_ROWS rows are left to the scalar
+ * kernel, which is faster on them.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see SupportKernel
+ */
+class VectorSupportKernel extends SupportKernel {
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+  private static final int LANES = SPECIES.length();
+  private static final int STEP_MIN_ROWS = 4 * LANES;
+
+  /**
+   * The gathers of the multiplication use the preferred species, capped at
+   * 256 bits: on Temurin 17.0.9+9 with AVX-512, the C2 code of the 512 bits
+   * gather of multiply crashes the VM with a SIGSEGV, as in 2 of 3 runs of
+   * "SupportKernelBenchmark 1024 1024 4", while the 256 bits gather passes.
+   */
+  private static final VectorSpecies<Double> GATHER_SPECIES =
+      SPECIES.vectorBitSize() > 256 ? DoubleVector.SPECIES_256 : SPECIES;
+  private static final int GATHER_LANES = GATHER_SPECIES.length();
+
+  /**
+   * Constructor
+   *
+   * @throws UnsupportedOperationException if the vectors have a single lane
+   */
+  public VectorSupportKernel() {
+    if (LANES < 2)
+      throw new UnsupportedOperationException("no vector registers for doubles");
+  }
+
+  @Override
+  String name() {
+    return "vector " + SPECIES;
+  }
+
+  @Override
+  void multiply(double[] products, double[] column, int[] positions, int count) {
+    int bound = GATHER_SPECIES.loopBound(count);
+    int j = 0;
+
+    for (; j < bound; j += GATHER_LANES) {
+      DoubleVector factors = DoubleVector.fromArray(GATHER_SPECIES, column, 0, positions, j);
+      DoubleVector.fromArray(GATHER_SPECIES, products, j).mul(factors).intoArray(products, j);
+    }
+    for (; j < count; j++)
+      products[j] *= column[positions[j]];
+  }
+
+  @Override
+  double sum(double[] values, int count) {
+    int bound = SPECIES.loopBound(count);
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    int j = 0;
+
+    for (; j < bound; j += LANES)
+      sums = sums.add(DoubleVector.fromArray(SPECIES, values, j));
+
+    double sum = sums.reduceLanes(VectorOperators.ADD);
+    for (; j < count; j++)
+      sum += values[j];
+    return sum;
+  }
+
+  @Override
+  void step(double[] P, int top, double probability) {
+    if (top < STEP_MIN_ROWS) {
+      super.step(P, top, probability);
+      return;
+    }
+
+    double complement = 1 - probability;
+    int i = top;
+
+    // P[i - LANES + 1 .. i] is computed from the old P[i - LANES .. i], which
+    // the blocks above it have not overwritten.
+    for (; i - LANES >= 0; i -= LANES) {
+      DoubleVector lower = DoubleVector.fromArray(SPECIES, P, i - LANES);
+      DoubleVector upper = DoubleVector.fromArray(SPECIES, P, i - LANES + 1);
+      lower.mul(probability).add(upper.mul(complement)).intoArray(P, i - LANES + 1);
+    }
+    for (; i >= 1; i--)
+      P[i] = P[i - 1] * probability + P[i] * complement;
+  }
+}
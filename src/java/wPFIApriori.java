@@ -1,9 +1,10 @@
 import java.io.IOException;
-import java.util.Collections;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * This is the implementation of the paper
@@ -14,21 +15,38 @@ import java.util.Random;
  *
  * @see UncertainDatabase
  * @see wPFIItem
+ * @see wPFIItemset
  */
 // class wPFIApriori implements wPFIAprioriInterface
 class wPFIApriori
 {
   UncertainDatabase database;
   HashSet<wPFIItem> allItems;
-  HashMap<Integer, Double> weightTable;
-  HashMap<HashSet<wPFIItem>, Double> supportDict = new HashMap<>();
+  double[] weightTable;
+  SupportCache supportDict = new SupportCache();
+  wPFIOptions options = new wPFIOptions();
+
+  /**
+   * The support distributions of the itemsets evaluated by the last
+   * runIncremental, and the source of the weights of the items added since.
+   */
+  HashMap<wPFIItemset, SupportDistribution> supportStates = new HashMap<>();
+  Random weightRandom;
 
   public static void main(String[] args) throws IOException
   {
     String pathWrapper = "./../../data/" + args[0] + ".dat";
 
     UncertainDatabase database = new UncertainDatabase();
-    database.loadFile(pathWrapper, false);
+
+    if (args.length > 6)
+      database.setSeed(Long.parseLong(args[6]));
+
+    if (args.length > 5) {
+      database.setMaxSize(Integer.parseInt(args[5]));
+      database.loadFileCached(pathWrapper, false);
+    } else
+      database.loadFileMapped(pathWrapper, false, Runtime.getRuntime().availableProcessors());
 
     float msup_ratio = Float.parseFloat(args[1]);
     float threshold = Float.parseFloat(args[2]);
@@ -36,6 +54,17 @@ class wPFIApriori
     boolean useProbabilityModel = Boolean.parseBoolean(args[4]);
 
     wPFIApriori apriori = new wPFIApriori(database);
+    apriori.options.setParallelism(Runtime.getRuntime().availableProcessors());
+    if (args.length > 7)
+      apriori.options.setMethod(wPFIOptions.parseMethod(args[7]));
+    if (args.length > 8)
+      apriori.options.setApproximation(wPFIOptions.parseApproximation(args[8]));
+    if (args.length > 9)
+      apriori.options.setPartitions(Integer.parseInt(args[9]));
+    if (args.length > 10)
+      apriori.options.setCountingBudget(Long.parseLong(args[10]) << 20);
+    if (args.length > 11)
+      apriori.options.setSupportCacheSize(Integer.parseInt(args[11]));
     apriori.runAlgorithm(msup_ratio, threshold, scale_factor, useProbabilityModel, database);
   }
 
@@ -48,7 +77,8 @@ class wPFIApriori
   {
     this.database = database;
     allItems = database.getAllItems();
-    weightTable = generateWeightTable(allItems);
+    weightRandom = database.isSeeded() ? new Random(database.getSeed()) : new Random();
+    weightTable = generateWeightTable(allItems, weightRandom);
   }
 
   /**
@@ -68,7 +98,7 @@ class wPFIApriori
     UncertainDatabase database
   ) {
     long startTime = System.currentTimeMillis();
-    int k = 1;
+    int k = 2;
     int minsup = (int) Math.round(msup_ratio * database.size());
 
     System.out.println("===========================================================");
@@ -76,38 +106,173 @@ class wPFIApriori
     System.out.println("Confidence threshold: " + threshold);
     System.out.println("===========================================================");
 
-    ArrayList<HashSet<HashSet<wPFIItem>>> wPFI = new ArrayList<>();
-    HashSet<HashSet<wPFIItem>> wPFI_k = scanFindSize1(supportDict, weightTable, database, threshold, minsup);
+    supportDict = new SupportCache(options.getSupportCacheSize());
+    ArrayList<HashSet<wPFIItemset>> wPFI = new ArrayList<>();
+    HashSet<wPFIItemset> wPFI_k = scanFindSize1(supportDict, weightTable, database, options, threshold, minsup);
     wPFI.add(wPFI_k);
 
     while (wPFI_k.size() != 0) {
-      HashSet<HashSet<wPFIItem>> candidateK = wPFIAprioriGenerate(supportDict, wPFI_k, weightTable, database, useProbabilityModel, threshold, scale_factor, minsup);
+      HashSet<wPFIItemset> candidateK = wPFIAprioriGenerate(supportDict, wPFI_k, weightTable, database, options, useProbabilityModel, threshold, scale_factor, minsup);
       System.out.printf("There are\t%d\t size-%d candidates.\n", candidateK.size(), k);
-      wPFI_k = scanFindSizeK(supportDict, weightTable, candidateK, database, threshold, minsup);
+      wPFI_k = scanFindSizeK(supportDict, weightTable, candidateK, database, options, threshold, minsup);
+      supportDict.retainLevel(wPFI_k);
       wPFI.add(wPFI_k);
       k++;
     }
 
     long endTime = System.currentTimeMillis();
     System.out.println("===========================================================");
+    options.printPruningCounters();
+    supportDict.printCounters();
+    if (options.getApproximation() != FrequentnessEngine.Approximation.NONE)
+      options.printApproximationCounters();
     System.out.printf("Total runtime: %ds", (int) (endTime - startTime) / 1000);
   }
 
+  /**
+   * Mine the database in incremental mode. The first call mines the whole
+   * database. Each later call only folds the transactions appended since the
+   * previous call into the support distributions kept for the itemsets it
+   * evaluated, and computes the distribution of the other candidates from the
+   * vertical index.
+   *
+   * @param msup_ratio   a float representing the minimum support ratio.
+   * @param threshold    a float representing the minimum confidence threshold.
+   * @param scale_factor a float representing the scaling factor for the
+   *                     probability model.
+   *
+   * @return the list of the wPFI of each size.
+   */
+  public ArrayList<HashSet<wPFIItemset>> runIncremental(
+    float msup_ratio,
+    float threshold,
+    float scale_factor,
+    boolean useProbabilityModel
+  ) {
+    int minsup = Math.round(msup_ratio * database.size());
+    HashMap<wPFIItemset, SupportDistribution> previousStates = supportStates;
+    supportStates = new HashMap<>();
+    supportDict = new SupportCache(options.getSupportCacheSize());
+    extendWeightTable();
+
+    ArrayList<HashSet<wPFIItemset>> wPFI = new ArrayList<>();
+    HashSet<wPFIItemset> candidateK = new HashSet<>();
+
+    for (wPFIItem item : allItems)
+      candidateK.add(wPFIItemset.of(item.getId()));
+
+    HashSet<wPFIItemset> wPFI_k = scanIncremental(previousStates, candidateK, threshold, minsup);
+    wPFI.add(wPFI_k);
+
+    while (wPFI_k.size() != 0) {
+      candidateK = wPFIAprioriGenerate(supportDict, wPFI_k, weightTable, database, options, useProbabilityModel, threshold, scale_factor, minsup);
+      wPFI_k = scanIncremental(previousStates, candidateK, threshold, minsup);
+      supportDict.retainLevel(wPFI_k);
+      wPFI.add(wPFI_k);
+    }
+    return wPFI;
+  }
+
+  /**
+   * Give a weight to the items added to the database since the weight table
+   * was generated.
+   */
+  void extendWeightTable() {
+    int itemCount = database.getDictionary().size();
+
+    if (itemCount > weightTable.length) {
+      int oldCount = weightTable.length;
+      weightTable = Arrays.copyOf(weightTable, itemCount);
+
+      for (int i = oldCount; i < itemCount; i++)
+        weightTable[i] = weightRandom.nextDouble();
+    }
+  }
+
+  /**
+   * Identify the wPFI among the candidates, keeping the support distribution
+   * of every candidate.
+   */
+  HashSet<wPFIItemset> scanIncremental(
+    HashMap<wPFIItemset, SupportDistribution> previousStates,
+    HashSet<wPFIItemset> candidateK,
+    float threshold,
+    int minsup
+  ) {
+    HashSet<wPFIItemset> new_candidates = new HashSet<wPFIItemset>();
+
+    for (wPFIItemset candidate : candidateK) {
+      double candidate_weight = itemsetWeight(weightTable, candidate);
+      double candidate_confidence = incrementalPr(previousStates, candidate, minsup);
+
+      if (candidate_confidence * candidate_weight >= threshold)
+        new_candidates.add(candidate);
+    }
+    return new_candidates;
+  }
+
+  /**
+   * Calculate the probability that an itemset is frequent from its support
+   * distribution. A distribution kept by the previous run is updated with the
+   * appended transactions only. It is computed again over the whole database
+   * if it is missing, or if minsup grew past its capacity.
+   *
+   * @param itemset a wPFIItemset representing an itemset.
+   *
+   * @return a double value representing the probability that the support of
+   *         the itemset is at least minsup.
+   */
+  double incrementalPr(
+    HashMap<wPFIItemset, SupportDistribution> previousStates,
+    wPFIItemset itemset,
+    int minsup
+  ) {
+    int databaseSize = database.size();
+    SupportDistribution state = previousStates.get(itemset);
+
+    if (state == null || state.getCapacity() < minsup) {
+      double[] probabilities = FrequentnessEngine.get().probabilities(databaseSize);
+      supportVector(database, itemset, probabilities);
+
+      state = new SupportDistribution(minsup + Math.max(16, minsup / 4));
+      for (double probability : probabilities)
+        state.add(probability);
+    } else {
+      TransactionBitmap bitmap = database.getTransactionBitmap();
+
+      if (bitmap != null) {
+        long[] mask = bitmap.mask(itemset);
+
+        for (int j = state.getSeen(); j < databaseSize; j++)
+          state.add(bitmap.probability(j, itemset, mask));
+      } else {
+        for (int j = state.getSeen(); j < databaseSize; j++)
+          state.add(itemsetSupportInTransaction(database, itemset, j));
+      }
+    }
+
+    supportStates.put(itemset, state);
+    supportDict.put(itemset, state.getMu());
+    return state.tail(minsup);
+  }
+
   /**
    * Generate a weight table that assigns a random weight between 0 and 1 to each
    * item.
    *
-   * @return a HashMap of integer keys and double values representing the weight
-   *         of each item.
+   * @param allItems the items of the database, with dense ids
+   * @param random   the source of the weights
+   *
+   * @return an array of double values representing the weight of each item,
+   *         indexed by dense item id.
    */
   // @Override
-  static HashMap<Integer, Double> generateWeightTable(HashSet<wPFIItem> allItems)
+  static double[] generateWeightTable(HashSet<wPFIItem> allItems, Random random)
   {
-    HashMap<Integer, Double> weightTable = new HashMap<Integer, Double>();
-    Random random = new Random();
+    double[] weightTable = new double[allItems.size()];
 
     for (wPFIItem item : allItems) {
-      weightTable.put(item.getId(), random.nextDouble());
+      weightTable[item.getId()] = random.nextDouble();
     }
 
     return weightTable;
@@ -116,51 +281,96 @@ class wPFIApriori
   /**
    * Calculate the average weight of items within a given itemset.
    *
-   * @param itemset a HashSet of wPFIItem objects representing an itemset.
+   * @param itemset a wPFIItemset representing an itemset.
    *
    * @return a double value representing the average weight of the items in the
    *         itemset.
    */
   // @Override
   static double itemsetWeight(
-    HashMap<Integer, Double> weightTable,
-    HashSet<wPFIItem> itemset
+    double[] weightTable,
+    wPFIItemset itemset
   ) {
     double sumWeight = 0;
 
-    for (wPFIItem item : itemset) {
-      sumWeight += weightTable.get(item.getId());
+    for (int i = 0; i < itemset.size(); i++) {
+      sumWeight += weightTable[itemset.get(i)];
     }
 
     return sumWeight / itemset.size();
   }
 
+  /**
+   * Calculate the average weight of an itemset with one more item, without
+   * building the larger itemset.
+   *
+   * @param itemset a wPFIItemset representing an itemset.
+   * @param item    the dense id of an item that is not in the itemset.
+   *
+   * @return a double value representing the average weight of the items in the
+   *         itemset and the item.
+   */
+  static double itemsetWeight(
+    double[] weightTable,
+    wPFIItemset itemset,
+    int item
+  ) {
+    double sumWeight = weightTable[item];
+
+    for (int i = 0; i < itemset.size(); i++) {
+      sumWeight += weightTable[itemset.get(i)];
+    }
+
+    return sumWeight / (itemset.size() + 1);
+  }
+
   /**
    * Finds PFIs of size 1
    *
-   * @return a HashSet of HashSet of wPFIItem objects representing FPIs of size 1.
+   * @return a HashSet of wPFIItemset objects representing FPIs of size 1.
    */
   // @Override
-  static HashSet<HashSet<wPFIItem>> scanFindSize1(
-    HashMap<HashSet<wPFIItem>, Double> supportDict,
-    HashMap<Integer, Double> weightTable,
+  static HashSet<wPFIItemset> scanFindSize1(
+    SupportCache supportDict,
+    double[] weightTable,
     UncertainDatabase database,
+    wPFIOptions options,
     float threshold,
     int minsup
   ) {
     HashSet<wPFIItem> allItems = database.getAllItems();
-    HashSet<HashSet<wPFIItem>> new_candidates = new HashSet<HashSet<wPFIItem>>();
-    HashSet<wPFIItem> candidate = new HashSet<wPFIItem>();
+    HashSet<wPFIItemset> new_candidates = new HashSet<wPFIItemset>();
+
+    if (options.getParallelism() > 1 || options.getCountingBudget() > 0) {
+      ArrayList<wPFIItemset> candidates = new ArrayList<>();
+      double[] weights = new double[allItems.size()];
+
+      for (wPFIItem item : allItems) {
+        weights[candidates.size()] = weightTable[item.getId()];
+        candidates.add(wPFIItemset.of(item.getId()));
+      }
+
+      double[] confidences = new double[candidates.size()];
+      double[] supports = new double[candidates.size()];
+      evaluateCandidates(database, options, candidates, weights, threshold, minsup, confidences, supports);
+
+      for (int i = 0; i < candidates.size(); i++) {
+        supportDict.put(candidates.get(i), supports[i]);
+
+        if (confidences[i] * weights[i] >= threshold)
+          new_candidates.add(candidates.get(i));
+      }
+      return new_candidates;
+    }
 
     for (wPFIItem item : allItems) {
-      candidate.add(item);
-      double candidate_weight = weightTable.get(item.getId());
-      double candidate_confidence = Pr(supportDict, database, candidate, threshold, minsup);
+      wPFIItemset candidate = wPFIItemset.of(item.getId());
+      double candidate_weight = weightTable[item.getId()];
+      double candidate_confidence = confidence(supportDict, database, options, candidate, candidate_weight, threshold, minsup,
+          options.partitionsFor(allItems.size()));
 
       if (candidate_confidence * candidate_weight >= threshold)
         new_candidates.add(candidate);
-
-      candidate.clear();
     }
     return new_candidates;
   }
@@ -168,25 +378,46 @@ class wPFIApriori
   /**
    * Identify PFIs of size k from a set of candidate PFI.
    *
-   * @param wPFI_k a HashSet of HashSet of wPFIItem objects representing candidate
+   * @param wPFI_k a HashSet of wPFIItemset objects representing candidate
    *               PFIs of size k.
    *
-   * @return a HashSet of HashSet of wPFIItem objects representing FPIs of size k.
+   * @return a HashSet of wPFIItemset objects representing FPIs of size k.
    */
   // @Override
-  static HashSet<HashSet<wPFIItem>> scanFindSizeK(
-    HashMap<HashSet<wPFIItem>, Double> supportDict,
-    HashMap<Integer, Double> weightTable,
-    HashSet<HashSet<wPFIItem>> wPFI_k,
+  static HashSet<wPFIItemset> scanFindSizeK(
+    SupportCache supportDict,
+    double[] weightTable,
+    HashSet<wPFIItemset> wPFI_k,
     UncertainDatabase database,
+    wPFIOptions options,
     float threshold,
     int minsup
   ) {
-    HashSet<HashSet<wPFIItem>> new_candidates = new HashSet<HashSet<wPFIItem>>();
+    HashSet<wPFIItemset> new_candidates = new HashSet<wPFIItemset>();
+
+    if (options.getParallelism() > 1 || options.getCountingBudget() > 0) {
+      ArrayList<wPFIItemset> candidates = new ArrayList<>(wPFI_k);
+      double[] weights = new double[candidates.size()];
+      double[] confidences = new double[candidates.size()];
+      double[] supports = new double[candidates.size()];
+
+      for (int i = 0; i < candidates.size(); i++)
+        weights[i] = itemsetWeight(weightTable, candidates.get(i));
+      evaluateCandidates(database, options, candidates, weights, threshold, minsup, confidences, supports);
+
+      for (int i = 0; i < candidates.size(); i++) {
+        supportDict.put(candidates.get(i), supports[i]);
+
+        if (confidences[i] * weights[i] >= threshold)
+          new_candidates.add(candidates.get(i));
+      }
+      return new_candidates;
+    }
 
-    for (HashSet<wPFIItem> candidate : wPFI_k) {
+    for (wPFIItemset candidate : wPFI_k) {
       double candidate_weight = itemsetWeight(weightTable, candidate);
-      double candidate_confidence = Pr(supportDict, database, candidate, threshold, minsup);
+      double candidate_confidence = confidence(supportDict, database, options, candidate, candidate_weight, threshold, minsup,
+          options.partitionsFor(wPFI_k.size()));
 
       if (candidate_confidence * candidate_weight >= threshold)
         new_candidates.add(candidate);
@@ -194,12 +425,58 @@ class wPFIApriori
     return new_candidates;
   }
 
+  /**
+   * Evaluate candidates on the pool of the options. The vertical index is
+   * built first, so the workers only read the database. With a counting
+   * budget, the candidates are counted by LevelCounter in batches instead,
+   * and each batch is evaluated before the next one is counted.
+   *
+   * @param candidates  the candidates
+   * @param weights     the weight of each candidate
+   * @param confidences receives the confidence of each candidate
+   * @param supports    receives the expected support of each candidate
+   */
+  static void evaluateCandidates(
+    UncertainDatabase database,
+    wPFIOptions options,
+    ArrayList<wPFIItemset> candidates,
+    double[] weights,
+    float threshold,
+    int minsup,
+    double[] confidences,
+    double[] supports
+  ) {
+    int partitions = options.partitionsFor(candidates.size());
+
+    if (options.getCountingBudget() > 0) {
+      int[] itemCounts = LevelCounter.itemCounts(database);
+
+      for (int from = 0; from < candidates.size();) {
+        int to = LevelCounter.batchEnd(candidates, from, itemCounts, options.getCountingBudget());
+        LevelCounter counter = new LevelCounter(database, candidates, from, to, itemCounts);
+
+        options.getPool().invoke(new CandidateEvaluation(database, options, candidates, weights, threshold, minsup,
+            partitions, counter, confidences, supports));
+        from = to;
+      }
+      return;
+    }
+
+    if (database.getTransactionBitmap() == null)
+      database.getVerticalIndex();
+    options.getPool().invoke(new CandidateEvaluation(database, options, candidates, weights, threshold, minsup,
+        partitions, confidences, supports));
+  }
+
   /**
    * Calculate the support of a given itemset within a specific transaction.
+   * The bitmap layout of a dense database compares the mask of the itemset
+   * with the row; the loops over the transactions build the mask once and
+   * call TransactionBitmap.probability themselves, as incrementalPr does.
    *
    * @param j       an integer value representing the index of the transaction to
    *                be analyzed.
-   * @param itemset a HashSet of wPFIItem objects representing the itemset for
+   * @param itemset a wPFIItemset representing the itemset for
    *                which suport is calculated.
    *
    * @return a double value representing the probability of the given itemset
@@ -208,20 +485,42 @@ class wPFIApriori
   // @Override
   static double itemsetSupportInTransaction(
     UncertainDatabase database,
-    HashSet<wPFIItem> itemset,
+    wPFIItemset itemset,
     int j
   ) {
+    TransactionBitmap bitmap = database.getTransactionBitmap();
+
+    if (bitmap != null)
+      return bitmap.probability(j, itemset, bitmap.mask(itemset));
+
+    TransactionStore store = database.getStore();
+
+    if (store != null) {
+      if (itemset.size() > store.length(j))
+        return 0;
+
+      double probability = 1;
+      for (int i = 0; i < itemset.size(); i++) {
+        double itemProbability = store.probabilityOf(j, itemset.get(i));
+
+        if (itemProbability == 0)
+          return 0;
+        probability *= itemProbability;
+      }
+      return probability;
+    }
+
     HashSet<wPFIItem> transaction = database.getTransactions().get(j);
 
     if (itemset.size() > transaction.size())
       return 0;
 
     double probability = 1;
-    for (wPFIItem item : itemset) {
+    for (int i = 0; i < itemset.size(); i++) {
       boolean found = false;
 
       for (wPFIItem itemTransaction : transaction) {
-        if (itemTransaction.equals(item)) {
+        if (itemTransaction.getId() == itemset.get(i)) {
           found = true;
           probability *= itemTransaction.getProbability();
           break;
@@ -233,67 +532,252 @@ class wPFIApriori
     return probability;
   }
 
+  /**
+   * Calculate the support of a given itemset in every transaction, using the
+   * vertical index so only the transactions that contain the itemset are
+   * visited.
+   *
+   * @param itemset       a wPFIItemset representing an itemset.
+   * @param probabilities an array of databaseSize zeros, receiving the
+   *                      probability of the itemset in each transaction.
+   *
+   * @return a double value representing the expected support of the itemset.
+   */
+  static double supportVector(
+    UncertainDatabase database,
+    wPFIItemset itemset,
+    double[] probabilities
+  ) {
+    FrequentnessEngine engine = FrequentnessEngine.get();
+    int[] tids = engine.tids(database.size());
+    double[] products = engine.products(database.size());
+    int found = supportList(database, itemset, tids, products);
+
+    for (int j = 0; j < found; j++)
+      probabilities[tids[j]] = products[j];
+    return SupportKernel.get().sum(products, found);
+  }
+
+  /**
+   * Find the transactions that contain a given itemset, and the probability
+   * of the itemset in each of them, from the bitmap layout of a dense
+   * database, otherwise from the vertical index.
+   *
+   * @param itemset  a wPFIItemset representing an itemset.
+   * @param tids     an array of databaseSize values, receiving the sorted
+   *                 indices of the transactions.
+   * @param products an array of databaseSize values, receiving the
+   *                 probability of the itemset in each of them.
+   *
+   * @return the number of transactions that contain the itemset.
+   */
+  static int supportList(
+    UncertainDatabase database,
+    wPFIItemset itemset,
+    int[] tids,
+    double[] products
+  ) {
+    TransactionBitmap bitmap = database.getTransactionBitmap();
+
+    if (bitmap != null)
+      return bitmap.intersect(itemset, tids, products);
+
+    VerticalIndex index = database.getVerticalIndex();
+    return index.intersect(itemset.toArray(), itemset.size(), tids, products);
+  }
+
+  /**
+   * Get the expected support of an itemset from supportDict. A missing one
+   * is computed and kept in supportDict: the expected support of an item is
+   * read from the database, and the one of a larger itemset is summed over
+   * its transactions. Without the index or the bitmap, as when the candidates
+   * are counted by LevelCounter, it is summed over every transaction instead
+   * of building the index.
+   *
+   * @param itemset a wPFIItemset representing an itemset.
+   *
+   * @return a double value representing the expected support of the itemset.
+   */
+  static double expectedSupport(
+    SupportCache supportDict,
+    UncertainDatabase database,
+    wPFIItemset itemset
+  ) {
+    double mu = supportDict.get(itemset);
+    if (!Double.isNaN(mu))
+      return mu;
+
+    double mu_itemset;
+    if (itemset.size() == 1) {
+      mu_itemset = database.getExpectedSupport(itemset.get(0));
+    } else if (!database.hasVerticalIndex() && database.getTransactionBitmap() == null) {
+      mu_itemset = 0;
+      for (int j = 0; j < database.size(); j++)
+        mu_itemset += itemsetSupportInTransaction(database, itemset, j);
+    } else {
+      FrequentnessEngine engine = FrequentnessEngine.get();
+      double[] products = engine.products(database.size());
+      int found = supportList(database, itemset, engine.tids(database.size()), products);
+      mu_itemset = SupportKernel.get().sum(products, found);
+    }
+    supportDict.put(itemset, mu_itemset);
+    return mu_itemset;
+  }
+
   /**
    * Calculate the probability of a given itemset occurring in a transaction.
+   * The dynamic programming runs in the FrequentnessEngine of the thread,
+   * over the transactions that contain the itemset only.
    *
-   * @param itemset a HashSet of wPFIItem objects representing an itemset.
+   * @param itemset a wPFIItemset representing an itemset.
    * 
    * @return a double value representing the probability of the given itemset
    *         occurring in a transaction.
    */
   // @Override
   static double Pr(
-    HashMap<HashSet<wPFIItem>, Double> supportDict,
+    SupportCache supportDict,
     UncertainDatabase database,
-    HashSet<wPFIItem> itemset,
+    wPFIOptions options,
+    wPFIItemset itemset,
     double threshold,
     int minsup
   ) {
     int databaseSize = database.size();
-    double[][] P = new double[minsup + 1][databaseSize + 1];
-    double[] probabilities = new double[databaseSize];
-    double mu_itemset = 0;
+    FrequentnessEngine engine = FrequentnessEngine.get();
+    int[] tids = engine.tids(databaseSize);
+    double[] products = engine.products(databaseSize);
+    int found = supportList(database, itemset, tids, products);
+    double mu_itemset = SupportKernel.get().sum(products, found);
+    supportDict.put(itemset, mu_itemset);
 
-    for (int i = 0; i < databaseSize; i++) {
-      probabilities[i] = itemsetSupportInTransaction(database, itemset, i);
-      mu_itemset += probabilities[i];
-    }
+    return engine.frequentness(tids, products, found, databaseSize, minsup, threshold, options.getMethod());
+  }
+
+  /**
+   * Calculate the probability of a given itemset occurring in a transaction.
+   * The itemset is first rejected if an upper bound on the probability
+   * already rules it out, then the approximation of the options is used when
+   * its error bound decides if the itemset is a wPFI.
+   *
+   * @param itemset a wPFIItemset representing an itemset.
+   * @param weight  the weight of the itemset.
+   * @param partitions the number of partitions whose support distributions
+   *                   are computed in parallel, 1 to compute it on this thread.
+   *
+   * @return a double value representing the probability of the given itemset
+   *         occurring in a transaction, or an approximation of it on the same
+   *         side of threshold / weight, or 0 if it is rejected by a bound.
+   */
+  static double confidence(
+    SupportCache supportDict,
+    UncertainDatabase database,
+    wPFIOptions options,
+    wPFIItemset itemset,
+    double weight,
+    double threshold,
+    int minsup,
+    int partitions
+  ) {
+    FrequentnessEngine engine = FrequentnessEngine.get();
+    int[] tids = engine.tids(database.size());
+    double[] products = engine.products(database.size());
+    int found = supportList(database, itemset, tids, products);
+
+    return confidence(supportDict, database, options, itemset, weight, threshold, minsup, partitions, tids, products,
+        found);
+  }
+
+  /**
+   * Calculate the probability of a given itemset occurring in a transaction,
+   * from the transactions that contain it.
+   *
+   * @param tids     the sorted indices of the transactions that contain the
+   *                 itemset, in the buffer of the FrequentnessEngine of the
+   *                 thread
+   * @param products the probability of the itemset in each of them, in the
+   *                 buffer of the FrequentnessEngine of the thread
+   * @param found    the number of these transactions
+   *
+   * @return the same as the confidence computed from the vertical index.
+   */
+  static double confidence(
+    SupportCache supportDict,
+    UncertainDatabase database,
+    wPFIOptions options,
+    wPFIItemset itemset,
+    double weight,
+    double threshold,
+    int minsup,
+    int partitions,
+    int[] tids,
+    double[] products,
+    int found
+  ) {
+    int databaseSize = database.size();
+    FrequentnessEngine engine = FrequentnessEngine.get();
+    double mu_itemset = SupportKernel.get().sum(products, found);
     supportDict.put(itemset, mu_itemset);
-    
-    for (int j = 0; j <= databaseSize; j++) {
-      P[0][j] = 1.0;
+
+    if (found < minsup) {
+      options.countPruned.increment();
+      return 0.0;
     }
 
-    for (int i = 1; i <= minsup; i++) {
-      if (P[i - 1][databaseSize - minsup + i] < threshold) {
+    if (options.isBoundPruning() && minsup > mu_itemset) {
+      if (FrequentnessEngine.chernoffBound(mu_itemset, minsup) * weight < threshold) {
+        options.chernoffPruned.increment();
         return 0.0;
       }
 
-      for (int j = i; j <= databaseSize; j++) {
-        P[i][j] = P[i - 1][j - 1] * probabilities[j - 1] + P[i][j - 1] * (1 - probabilities[j - 1]);
+      double variance = engine.variance(products, found);
+      if (FrequentnessEngine.cantelliBound(mu_itemset, variance, minsup) * weight < threshold) {
+        options.cantelliPruned.increment();
+        return 0.0;
       }
     }
-    return P[minsup][databaseSize];
+
+    if (options.getApproximation() != FrequentnessEngine.Approximation.NONE) {
+      FrequentnessEstimate estimate = engine.approximate(products, found, minsup, options.getApproximation());
+
+      if (estimate.decides(weight, threshold)) {
+        options.approximated.increment();
+        options.largestErrorBound.accumulate(estimate.getErrorBound());
+        return estimate.getProbability();
+      }
+      options.exactFallbacks.increment();
+    }
+
+    if (partitions > 1 && found >= PartitionedFrequentness.MIN_SIZE && minsup > 0
+        && options.getMethod() != FrequentnessEngine.Method.CONVOLUTION) {
+      // The buffers of the engine may be reused by this thread while it waits.
+      PartitionedFrequentness task = new PartitionedFrequentness(Arrays.copyOf(products, found), found, minsup,
+          partitions);
+      SupportDistribution distribution = ForkJoinTask.inForkJoinPool() ? task.invoke() : options.getPool().invoke(task);
+      return distribution.tail(minsup);
+    }
+
+    return engine.frequentness(tids, products, found, databaseSize, minsup, threshold, options.getMethod());
   }
 
   /**
    * Find the minimum weight of the items within the given itemset.
    *
-   * @param itemset a HashSet of wPFIItem objects representing an itemset.
+   * @param itemset a wPFIItemset representing an itemset.
    *
    * @return a double value representing the minimum weight of any item in the
    *         given itemset.
    */
   // @Override
   static double minWeightItemset(
-    HashMap<Integer, Double> weightTable, 
-    HashSet<wPFIItem> itemset
+    double[] weightTable, 
+    wPFIItemset itemset
   ) {
     double minWeight = 1.1;
     double itemWeight;
 
-    for (wPFIItem item : itemset) {
-      itemWeight = weightTable.get(item.getId());
+    for (int i = 0; i < itemset.size(); i++) {
+      itemWeight = weightTable[itemset.get(i)];
 
       if (itemWeight < minWeight) {
         minWeight = itemWeight;
@@ -306,95 +790,172 @@ class wPFIApriori
    * The implementation of Algorithm 2 in the research paper.
    * Generate candidate PFI of size k from PFI of size k-1.
    *
-   * @param wPFI_K_1            a HashSet of HashSet of wPFIItem objects
+   * The items are ranked by decreasing weight, and each candidate is only
+   * generated from the (k-1)-itemset made of its k-1 heaviest items, by the
+   * lightest one: the itemsets of the previous level are joined on their
+   * prefix in this order, so every candidate is generated once. Removing the
+   * lightest item of a wPFI gives a wPFI, so no wPFI is missed.
+   *
+   * An item in I_ can extend an itemset if it comes after its items in this
+   * order, and an item outside I_ if it is lighter than all of them, as in
+   * the paper. Removing any item lighter than the average weight of a wPFI
+   * also gives a wPFI, so a candidate is pruned if one of these subsets is
+   * not in the trie of the previous level.
+   *
+   * With more than one thread, the itemsets are split among the workers of
+   * the pool by CandidateGeneration, once the expected supports read by the
+   * probability model are computed, if they all fit in supportDict. With a
+   * counting budget, the missing ones are counted by LevelCounter.
+   *
+   * @param wPFI_K_1            a HashSet of wPFIItemset objects
    *                            representing the
    *                            frequent itemsets of size k-1.
    * @param useProbabilityModel a boolean flag indicating whether to use the
    *                            probability model for filtering candidate itemset.
    *
-   * @return a HashSet of HashSet of wPFIItem objects representing candidate
+   * @return a HashSet of wPFIItemset objects representing candidate
    *         PFI of size k.
    */
   // @Override
-  static HashSet<HashSet<wPFIItem>> wPFIAprioriGenerate(
-    HashMap<HashSet<wPFIItem>, Double> supportDict,
-    HashSet<HashSet<wPFIItem>> wPFI_K_1,
-    HashMap<Integer, Double> weightTable, 
+  static HashSet<wPFIItemset> wPFIAprioriGenerate(
+    SupportCache supportDict,
+    HashSet<wPFIItemset> wPFI_K_1,
+    double[] weightTable, 
     UncertainDatabase database,
+    wPFIOptions options,
     boolean useProbabilityModel,
     float threshold,
     float alpha,
     int minsup
   ) {
-    HashSet<wPFIItem> allItems = database.getAllItems();
-    HashSet<HashSet<wPFIItem>> candidateK = new HashSet<HashSet<wPFIItem>>();
-    HashSet<wPFIItem> I_ = new HashSet<wPFIItem>();
-    HashSet<wPFIItem> differentSet = new HashSet<>();
-    HashSet<wPFIItem> tempCandidate = new HashSet<>();
+    HashSet<wPFIItemset> candidateK = new HashSet<wPFIItemset>();
 
-    int databaseSize = database.size();
+    if (wPFI_K_1.isEmpty())
+      return candidateK;
 
-    for (HashSet<wPFIItem> candidate : wPFI_K_1) {
-      I_.addAll(candidate);
-    }
+    int databaseSize = database.size();
 
-    double maxWeight = Collections.max(weightTable.values());
+    double maxWeight = 0;
+    for (double weight : weightTable)
+      maxWeight = Math.max(maxWeight, weight);
     double mu_ = calculateMu_(0, databaseSize, minsup, threshold, maxWeight);
 
-    for (HashSet<wPFIItem> candidate : wPFI_K_1) {
-      differentSet.addAll(I_);
-      differentSet.removeAll(candidate);
+    int[] order = weightOrder(weightTable, database.getAllItems());
+    int[] rank = new int[weightTable.length];
+    for (int r = 0; r < order.length; r++)
+      rank[order[r]] = r;
 
-      for (wPFIItem item : differentSet) {
-        tempCandidate.addAll(candidate);
-        tempCandidate.add(item);
+    boolean[] inI_ = new boolean[weightTable.length];
+    int size = wPFI_K_1.iterator().next().size();
+    int[][] sequences = new int[wPFI_K_1.size()][];
+    int count = 0;
 
-        if (itemsetWeight(weightTable, tempCandidate) < threshold) {
-          tempCandidate.clear();
-          continue;
-        }
+    for (wPFIItemset itemset : wPFI_K_1) {
+      int[] sequence = new int[size];
 
-        if (useProbabilityModel) {
-          if (!conditionAlgorithm3(supportDict, database, candidate, item, mu_, alpha, threshold, minsup)) {
-            tempCandidate.clear();
-            continue;
-          }
-        }
-        candidateK.add(new HashSet<>(tempCandidate));
-        tempCandidate.clear();
+      for (int i = 0; i < size; i++) {
+        inI_[itemset.get(i)] = true;
+        sequence[i] = rank[itemset.get(i)];
       }
+      Arrays.sort(sequence);
+      sequences[count++] = sequence;
+    }
+    Arrays.sort(sequences, 0, count, Arrays::compare);
+    ItemsetTrie trie = new ItemsetTrie(sequences, count, size);
 
-      double argmin = minWeightItemset(weightTable, candidate);
-      tempCandidate.clear();
-      differentSet.addAll(allItems);
-      differentSet.removeAll(I_);
+    CandidateGeneration generation = new CandidateGeneration(supportDict, database, weightTable, order, inI_, sequences,
+        count, trie, useProbabilityModel, mu_, threshold, alpha);
 
-      for (wPFIItem item : differentSet) {
-        tempCandidate.addAll(candidate);
-        tempCandidate.add(item);
+    boolean parallel = options.getParallelism() > 1 && count > CandidateGeneration.LEAF_SIZE;
 
-        if (itemsetWeight(weightTable, tempCandidate) < threshold) {
-          tempCandidate.clear();
-          continue;
-        }
-        if (weightTable.get(item.getId()) >= argmin) {
-          tempCandidate.clear();
-          continue;
+    if (useProbabilityModel && (parallel || options.getCountingBudget() > 0)
+        && supportDict.fits(count + order.length)) {
+      supportDict.retainLevel(wPFI_K_1);
+
+      if (options.getCountingBudget() > 0) {
+        ArrayList<wPFIItemset> missing = new ArrayList<>();
+        for (wPFIItemset itemset : wPFI_K_1) {
+          if (Double.isNaN(supportDict.get(itemset)))
+            missing.add(itemset);
         }
-        if (useProbabilityModel) {
-          if (!conditionAlgorithm3(supportDict, database, candidate, item, mu_, alpha, threshold, minsup)) {
-            tempCandidate.clear();
-            continue;
-          }
+        countSupports(supportDict, database, options, missing);
+
+        missing.clear();
+        for (int item : order) {
+          if (Double.isNaN(supportDict.get(wPFIItemset.of(item))))
+            missing.add(wPFIItemset.of(item));
         }
-        candidateK.add(new HashSet<>(tempCandidate));
-        tempCandidate.clear();
+        countSupports(supportDict, database, options, missing);
+      } else {
+        for (wPFIItemset itemset : wPFI_K_1)
+          expectedSupport(supportDict, database, itemset);
+        for (int item : order)
+          expectedSupport(supportDict, database, wPFIItemset.of(item));
       }
-      differentSet.clear();
     }
+
+    if (parallel && (!useProbabilityModel || supportDict.fits(count + order.length)))
+      return options.getPool().invoke(generation);
+
+    generation.generate(candidateK);
     return candidateK;
   }
 
+  /**
+   * Compute the expected supports of itemsets of the same size with
+   * LevelCounter, in batches that fit in the counting budget, and keep them
+   * in supportDict.
+   *
+   * @param itemsets the itemsets, all of the same size
+   */
+  static void countSupports(
+    SupportCache supportDict,
+    UncertainDatabase database,
+    wPFIOptions options,
+    ArrayList<wPFIItemset> itemsets
+  ) {
+    if (itemsets.isEmpty())
+      return;
+
+    int[] itemCounts = LevelCounter.itemCounts(database);
+    FrequentnessEngine engine = FrequentnessEngine.get();
+    int[] tids = engine.tids(database.size());
+    double[] products = engine.products(database.size());
+
+    for (int from = 0; from < itemsets.size();) {
+      int to = LevelCounter.batchEnd(itemsets, from, itemCounts, options.getCountingBudget());
+      LevelCounter counter = new LevelCounter(database, itemsets, from, to, itemCounts);
+
+      for (int c = from; c < to; c++) {
+        int found = counter.copy(c, tids, products);
+        supportDict.put(itemsets.get(c), SupportKernel.get().sum(products, found));
+      }
+      from = to;
+    }
+  }
+
+  /**
+   * Rank the items by decreasing weight, then by increasing id.
+   *
+   * @param allItems the items of the database, with dense ids
+   *
+   * @return the dense ids of the items in this order.
+   */
+  static int[] weightOrder(double[] weightTable, HashSet<wPFIItem> allItems) {
+    Integer[] order = new Integer[allItems.size()];
+    int count = 0;
+
+    for (wPFIItem item : allItems)
+      order[count++] = item.getId();
+    Arrays.sort(order, (a, b) -> weightTable[a] != weightTable[b]
+        ? Double.compare(weightTable[b], weightTable[a]) : Integer.compare(a, b));
+
+    int[] ids = new int[count];
+    for (int i = 0; i < count; i++)
+      ids[i] = order[i];
+    return ids;
+  }
+
   /**
    * Calculate the factorial of a given non-negative integer n.
    *
@@ -473,10 +1034,11 @@ class wPFIApriori
   /**
    * The implementation of additional conditions from Algorithm 3 in the research
    * paper. These condition will be added in the algorithm 2 to early prune the
-   * candidates.
+   * candidates. Only the expected supports are needed, so a missing one is
+   * computed without the frequentness probability.
    *
-   * @param itemset a HashSet of wPFIItem objects.
-   * @param item    a wPFIItem object.
+   * @param itemset a wPFIItemset.
+   * @param item    the dense id of an item.
    * @param mu_     a double value representing the minimum support threshold.
    *
    * @return a boolean flag indicating whether the given itemset and item satisfy
@@ -484,28 +1046,18 @@ class wPFIApriori
    */
   // @Override
   static boolean conditionAlgorithm3(
-    HashMap<HashSet<wPFIItem>, Double> supportDict,
+    SupportCache supportDict,
     UncertainDatabase database,
-    HashSet<wPFIItem> itemset,
-    wPFIItem item,
+    wPFIItemset itemset,
+    int item,
     double mu_,
-    double alpha,
-    double threshold,
-    int minsup
+    double alpha
   ) {
-    if (itemset == null || item == null)
+    if (itemset == null)
       return false;
 
-    HashSet<wPFIItem> itemWrapper = new HashSet<>();
-    itemWrapper.add(item);
-
-    if (supportDict.get(itemset) == null)
-      Pr(supportDict, database, itemset, threshold, minsup);
-    if (supportDict.get(itemWrapper) == null)
-      Pr(supportDict, database, itemWrapper, threshold, minsup);
-
-    double mu_X = supportDict.get(itemset);
-    double mu_I = supportDict.get(itemWrapper);
+    double mu_X = expectedSupport(supportDict, database, itemset);
+    double mu_I = expectedSupport(supportDict, database, wPFIItemset.of(item));
 
     if (mu_X < mu_ || mu_I < mu_)
       return false;
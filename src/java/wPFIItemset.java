@@ -0,0 +1,195 @@
+import java.util.Arrays;
+
+/**
+ * This class represents an itemset as used by the wPFIApriori algorithm: the
+ * dense ids of its items, sorted, with the hash code computed once.
+ *
+ * An itemset cannot be modified, so it can be the key of the maps of the
+ * miner. Adding an item gives a new itemset.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see wPFIItem
+ * @see wPFIApriori
+ */
+class wPFIItemset implements Comparable<wPFIItemset> {
+  static final wPFIItemset EMPTY = new wPFIItemset(new int[0]);
+
+  private final int[] items;
+  private final int hash;
+
+  private wPFIItemset(int[] items) {
+    this.items = items;
+    this.hash = Arrays.hashCode(items);
+  }
+
+  /**
+   * Get the itemset of a single item.
+   *
+   * @param item the dense id of the item
+   * @return a wPFIItemset
+   */
+  static wPFIItemset of(int item) {
+    return new wPFIItemset(new int[] { item });
+  }
+
+  /**
+   * Get the itemset of the given items.
+   *
+   * @param items the dense ids of the items, in any order
+   * @param count the number of items
+   * @return a wPFIItemset
+   */
+  static wPFIItemset of(int[] items, int count) {
+    int[] sorted = Arrays.copyOf(items, count);
+    Arrays.sort(sorted);
+
+    int distinct = 0;
+    for (int i = 0; i < count; i++) {
+      if (distinct == 0 || sorted[distinct - 1] != sorted[i])
+        sorted[distinct++] = sorted[i];
+    }
+    return new wPFIItemset(distinct == count ? sorted : Arrays.copyOf(sorted, distinct));
+  }
+
+  /**
+   * Get the number of items.
+   *
+   * @return int
+   */
+  public int size() {
+    return items.length;
+  }
+
+  /**
+   * Get the item at a given index, in increasing order of the ids.
+   *
+   * @param index the index, below size()
+   * @return the dense id of the item
+   */
+  public int get(int index) {
+    return items[index];
+  }
+
+  /**
+   * Copy the items into an array.
+   *
+   * @return the dense ids of the items, sorted
+   */
+  public int[] toArray() {
+    return items.clone();
+  }
+
+  /**
+   * Check if the itemset contains an item.
+   *
+   * @param item the dense id of the item
+   * @return true if it does, otherwise false.
+   */
+  public boolean contains(int item) {
+    return Arrays.binarySearch(items, item) >= 0;
+  }
+
+  /**
+   * Get this itemset with one more item.
+   *
+   * @param item the dense id of the item
+   * @return a new itemset, or this one if it contains the item already.
+   */
+  public wPFIItemset with(int item) {
+    int position = Arrays.binarySearch(items, item);
+    if (position >= 0)
+      return this;
+
+    position = -position - 1;
+    int[] extended = new int[items.length + 1];
+    System.arraycopy(items, 0, extended, 0, position);
+    extended[position] = item;
+    System.arraycopy(items, position, extended, position + 1, items.length - position);
+    return new wPFIItemset(extended);
+  }
+
+  /**
+   * Check if every item of this itemset is in another.
+   *
+   * @param other the other itemset
+   * @return true if this is a subset of other, otherwise false.
+   */
+  public boolean isSubsetOf(wPFIItemset other) {
+    if (items.length > other.items.length)
+      return false;
+
+    int position = 0;
+    for (int item : items) {
+      while (position < other.items.length && other.items[position] < item)
+        position++;
+      if (position == other.items.length || other.items[position] != item)
+        return false;
+      position++;
+    }
+    return true;
+  }
+
+  /**
+   * Compare the first length items of this itemset and another.
+   *
+   * @param other  the other itemset
+   * @param length the length of the prefixes, at most the size of both
+   * @return a negative number, zero or a positive number if the prefix of
+   *         this itemset is before, equal to or after the prefix of other.
+   */
+  public int comparePrefix(wPFIItemset other, int length) {
+    for (int i = 0; i < length; i++) {
+      if (items[i] != other.items[i])
+        return Integer.compare(items[i], other.items[i]);
+    }
+    return 0;
+  }
+
+  /**
+   * Compare the items in lexicographic order, a prefix first.
+   */
+  @Override
+  public int compareTo(wPFIItemset other) {
+    int compared = comparePrefix(other, Math.min(items.length, other.items.length));
+    if (compared != 0)
+      return compared;
+    return Integer.compare(items.length, other.items.length);
+  }
+
+  /**
+   * Check if this itemset is equal to another.
+   *
+   * @param object another itemset
+   * @return true if they have the same items, otherwise false.
+   */
+  @Override
+  public boolean equals(Object object) {
+    if (this == object)
+      return true;
+    if (!(object instanceof wPFIItemset))
+      return false;
+
+    wPFIItemset other = (wPFIItemset) object;
+    return hash == other.hash && Arrays.equals(items, other.items);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  /**
+   * Get a string representation of this itemset.
+   *
+   * @return a string
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("[");
+
+    for (int item : items)
+      builder.append(item).append(' ');
+    return builder.append(']').toString();
+  }
+}
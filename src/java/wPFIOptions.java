@@ -0,0 +1,241 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class holds the settings of a run of wPFIApriori besides its
+ * thresholds, such as how the frequentness probability is computed, and the
+ * counters the run reports.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see wPFIApriori
+ * @see FrequentnessEngine
+ */
+class wPFIOptions {
+  FrequentnessEngine.Method method = FrequentnessEngine.Method.AUTO;
+  FrequentnessEngine.Approximation approximation = FrequentnessEngine.Approximation.NONE;
+  boolean boundPruning = true;
+  int parallelism = 1;
+  int partitions = 0;
+  long countingBudget = 0;
+  int supportCacheSize = SupportCache.UNLIMITED;
+  ForkJoinPool pool = null;
+
+  /**
+   * The number of candidates decided by an approximation, the number that
+   * fell back to the exact computation, and the largest error bound of an
+   * approximation that was used.
+   */
+  final LongAdder approximated = new LongAdder();
+  final LongAdder exactFallbacks = new LongAdder();
+  final DoubleAccumulator largestErrorBound = new DoubleAccumulator(Math::max, 0);
+
+  /**
+   * The number of candidates rejected because fewer than minsup transactions
+   * contain them, by the Chernoff bound among the others, and by the Cantelli
+   * bound among the rest.
+   */
+  final LongAdder countPruned = new LongAdder();
+  final LongAdder chernoffPruned = new LongAdder();
+  final LongAdder cantelliPruned = new LongAdder();
+
+  /**
+   * Set how the frequentness probability is computed.
+   *
+   * @param method the method, AUTO to choose it from minsup and the database
+   *               size
+   */
+  public void setMethod(FrequentnessEngine.Method method) {
+    this.method = method;
+  }
+
+  public FrequentnessEngine.Method getMethod() {
+    return method;
+  }
+
+  /**
+   * Approximate the frequentness probability of the candidates. A candidate
+   * whose error bound does not decide if it is a wPFI is computed exactly.
+   *
+   * @param approximation the approximation, or NONE to always compute the
+   *                      exact probability
+   */
+  public void setApproximation(FrequentnessEngine.Approximation approximation) {
+    this.approximation = approximation;
+  }
+
+  public FrequentnessEngine.Approximation getApproximation() {
+    return approximation;
+  }
+
+  /**
+   * Reject the candidates whose Chernoff or Cantelli bound times their weight
+   * is below the threshold before computing their frequentness probability.
+   * This does not change the result.
+   *
+   * @param boundPruning whether the bounds are used
+   */
+  public void setBoundPruning(boolean boundPruning) {
+    this.boundPruning = boundPruning;
+  }
+
+  public boolean isBoundPruning() {
+    return boundPruning;
+  }
+
+  /**
+   * Set the number of threads that evaluate the candidates of a level.
+   *
+   * @param parallelism the number of threads, 1 to evaluate them on the
+   *                    calling thread
+   */
+  public void setParallelism(int parallelism) {
+    if (parallelism < 1)
+      throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+
+    if (pool != null && pool.getParallelism() != parallelism) {
+      pool.shutdown();
+      pool = null;
+    }
+    this.parallelism = parallelism;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Set the number of partitions of the transactions of a candidate whose
+   * support distributions are computed in parallel and merged.
+   *
+   * @param partitions the number of partitions, 1 to never split a
+   *                   candidate, or 0 to split into getParallelism()
+   *                   partitions on the levels with fewer candidates than
+   *                   threads
+   */
+  public void setPartitions(int partitions) {
+    if (partitions < 0)
+      throw new IllegalArgumentException("partitions must not be negative: " + partitions);
+    this.partitions = partitions;
+  }
+
+  public int getPartitions() {
+    return partitions;
+  }
+
+  /**
+   * Get the number of partitions of the candidates of a level.
+   *
+   * @param candidateCount the number of candidates of the level
+   * @return int
+   */
+  public int partitionsFor(int candidateCount) {
+    if (partitions > 0)
+      return partitions;
+    return candidateCount < parallelism ? parallelism : 1;
+  }
+
+  /**
+   * Count the candidates of a level in a single pass over the transactions,
+   * in batches whose lists of transactions fit in a budget, instead of
+   * intersecting the lists of the vertical index.
+   *
+   * @param countingBudget the budget of the lists of a batch, in bytes, or 0
+   *                       to use the vertical index
+   */
+  public void setCountingBudget(long countingBudget) {
+    if (countingBudget < 0)
+      throw new IllegalArgumentException("countingBudget must not be negative: " + countingBudget);
+    this.countingBudget = countingBudget;
+  }
+
+  public long getCountingBudget() {
+    return countingBudget;
+  }
+
+  /**
+   * Set the largest number of expected supports the miner keeps. Past it,
+   * the supports of itemsets of more than one item are evicted, and
+   * computed again if they are read.
+   *
+   * @param supportCacheSize the number of supports, or SupportCache.UNLIMITED
+   */
+  public void setSupportCacheSize(int supportCacheSize) {
+    if (supportCacheSize < 0)
+      throw new IllegalArgumentException("supportCacheSize must not be negative: " + supportCacheSize);
+    this.supportCacheSize = supportCacheSize;
+  }
+
+  public int getSupportCacheSize() {
+    return supportCacheSize;
+  }
+
+  /**
+   * Get the pool that evaluates the candidates, created on the first call.
+   *
+   * @return a ForkJoinPool of getParallelism() threads
+   */
+  public synchronized ForkJoinPool getPool() {
+    if (pool == null)
+      pool = new ForkJoinPool(parallelism);
+    return pool;
+  }
+
+  /**
+   * Print the counters of the pruning to System.out.
+   */
+  public void printPruningCounters() {
+    System.out.printf("Pruned by the transaction count: %d, by the Chernoff bound: %d, by the Cantelli bound: %d\n",
+        countPruned.sum(), chernoffPruned.sum(), cantelliPruned.sum());
+  }
+
+  /**
+   * Print the counters of the approximation to System.out.
+   */
+  public void printApproximationCounters() {
+    System.out.println("Approximation: " + approximation);
+    System.out.printf("Decided by the approximation: %d, computed exactly: %d, largest error bound used: %.3g\n",
+        approximated.sum(), exactFallbacks.sum(), largestErrorBound.get());
+  }
+
+  /**
+   * Parse the name of a method: auto, dp or fft.
+   *
+   * @param name the name
+   * @return the method
+   */
+  static FrequentnessEngine.Method parseMethod(String name) {
+    switch (name.toLowerCase()) {
+      case "auto":
+        return FrequentnessEngine.Method.AUTO;
+      case "dp":
+        return FrequentnessEngine.Method.DYNAMIC_PROGRAMMING;
+      case "fft":
+        return FrequentnessEngine.Method.CONVOLUTION;
+      default:
+        throw new IllegalArgumentException("unknown frequentness method: " + name);
+    }
+  }
+
+  /**
+   * Parse the name of an approximation: none, normal, poisson or refined.
+   *
+   * @param name the name
+   * @return the approximation
+   */
+  static FrequentnessEngine.Approximation parseApproximation(String name) {
+    switch (name.toLowerCase()) {
+      case "none":
+        return FrequentnessEngine.Approximation.NONE;
+      case "normal":
+        return FrequentnessEngine.Approximation.NORMAL;
+      case "poisson":
+        return FrequentnessEngine.Approximation.POISSON;
+      case "refined":
+        return FrequentnessEngine.Approximation.REFINED_NORMAL;
+      default:
+        throw new IllegalArgumentException("unknown approximation: " + name);
+    }
+  }
+}
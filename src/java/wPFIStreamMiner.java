@@ -0,0 +1,516 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * This class mines the weighted probabilistic frequent itemsets of the last
+ * transactions of a stream, as wPFIApriori does for a whole database.
+ *
+ * The transactions are kept in one SlidingWindow shared by every candidate
+ * itemset, so memory only depends on the window size. The window is cut into
+ * panes of gcd(windowSize, slide) transactions, and each candidate keeps the
+ * truncated SupportDistribution of each pane of the window: when the window
+ * slides, the panes that left it are dropped, only the new panes are
+ * counted, and the panes are merged into the distribution of the window.
+ * A distribution only holds min(minsup, transactions of the itemset) + 1
+ * probabilities, and a candidate keeps at most 2 * MAX_PANES + 1 of them, so
+ * the panes of a candidate take at most (2 * MAX_PANES + 1) * (min(minsup,
+ * windowSize) + 1) doubles. When the window has more than MAX_PANES panes,
+ * the candidates keep no panes and the window is counted again at each slide.
+ *
+ * An item that left the window is dropped with its weight once there are as
+ * many such items as items in the window, so the item ids stay bounded too.
+ *
+ * @author Nguyen Hoang Phuc (scuph-ng)
+ *
+ * @see SlidingWindow
+ * @see wPFIApriori
+ */
+class wPFIStreamMiner
+{
+  /**
+   * The items that left the window are dropped once there are at least
+   * MIN_RELEASE of them.
+   */
+  static final int MIN_RELEASE = 64;
+
+  /**
+   * The largest number of panes of a window for which the candidates keep
+   * the distributions of the panes.
+   */
+  static final int MAX_PANES = 64;
+
+  /**
+   * The distributions of the panes of the window of a candidate, kept as a
+   * queue of two stacks so the window is merged from O(1) distributions per
+   * slide: the older panes as the merges of each of them with the ones after
+   * it in front, and the newer panes one by one in back, with their merge.
+   */
+  static class PaneSupports {
+    private final ArrayDeque<SupportDistribution> front = new ArrayDeque<>();
+    private final ArrayList<SupportDistribution> back = new ArrayList<>();
+    private SupportDistribution backMerged = null;
+    final int capacity;
+    long nextPane;
+
+    PaneSupports(long nextPane, int capacity) {
+      this.nextPane = nextPane;
+      this.capacity = capacity;
+    }
+
+    int size() {
+      return front.size() + back.size();
+    }
+
+    /**
+     * Add the distribution of the pane before nextPane.
+     */
+    void add(SupportDistribution pane) {
+      back.add(pane);
+      backMerged = backMerged == null ? pane : backMerged.merge(pane);
+      nextPane++;
+    }
+
+    /**
+     * Drop the distribution of the oldest pane.
+     */
+    void removeOldest() {
+      if (front.isEmpty()) {
+        SupportDistribution merged = null;
+
+        for (int i = back.size() - 1; i >= 0; i--) {
+          merged = merged == null ? back.get(i) : back.get(i).merge(merged);
+          front.addFirst(merged);
+        }
+        back.clear();
+        backMerged = null;
+      }
+      front.removeFirst();
+    }
+
+    /**
+     * Get the distribution of all the panes.
+     */
+    SupportDistribution merged() {
+      if (front.isEmpty())
+        return backMerged;
+      if (backMerged == null)
+        return front.peekFirst();
+      return front.peekFirst().merge(backMerged);
+    }
+  }
+
+  SlidingWindow window;
+  int windowSize;
+  int slide;
+  int pane;
+  HashMap<wPFIItemset, PaneSupports> paneSupports = new HashMap<>();
+  float msup_ratio;
+  float threshold;
+  float scale_factor;
+  boolean useProbabilityModel;
+
+  ItemDictionary dictionary = new ItemDictionary(new int[0]);
+  wPFIItem[] items = new wPFIItem[0];
+  double[] weightTable = new double[0];
+  long[] lastSeen = new long[0];
+  Random weightRandom;
+  ProbabilityGenerator generator;
+  int[] itemScratch = new int[64];
+  double[] probabilityScratch = new double[64];
+
+  public static void main(String[] args) throws IOException
+  {
+    String pathWrapper = "./../../data/" + args[0] + ".dat";
+
+    int windowSize = Integer.parseInt(args[1]);
+    int slide = Integer.parseInt(args[2]);
+    float msup_ratio = Float.parseFloat(args[3]);
+    float threshold = Float.parseFloat(args[4]);
+    float scale_factor = Float.parseFloat(args[5]);
+    boolean useProbabilityModel = Boolean.parseBoolean(args[6]);
+    long seed = args.length > 7 ? Long.parseLong(args[7]) : System.nanoTime();
+
+    wPFIStreamMiner miner = new wPFIStreamMiner(windowSize, slide, msup_ratio, threshold, scale_factor,
+        useProbabilityModel, seed);
+
+    if (args[0].equals("-"))
+      miner.process(System.in, false);
+    else
+      try (FileInputStream fin = new FileInputStream(pathWrapper)) {
+        miner.process(fin, false);
+      }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param windowSize   the number of transactions of the window.
+   * @param slide        the number of transactions between two outputs.
+   * @param msup_ratio   a float representing the minimum support ratio.
+   * @param threshold    a float representing the minimum confidence threshold.
+   * @param scale_factor a float representing the scaling factor for the
+   *                     probability model.
+   * @param seed         the seed of the probabilities and of the weights.
+   */
+  public wPFIStreamMiner(
+    int windowSize,
+    int slide,
+    float msup_ratio,
+    float threshold,
+    float scale_factor,
+    boolean useProbabilityModel,
+    long seed
+  ) {
+    if (slide <= 0)
+      throw new IllegalArgumentException("slide must be positive: " + slide);
+
+    this.window = new SlidingWindow(windowSize);
+    this.windowSize = windowSize;
+    this.slide = slide;
+    this.pane = gcd(windowSize, slide);
+    this.msup_ratio = msup_ratio;
+    this.threshold = threshold;
+    this.scale_factor = scale_factor;
+    this.useProbabilityModel = useProbabilityModel;
+    weightRandom = new Random(seed);
+    generator = new ProbabilityGenerator(seed);
+  }
+
+  private static int gcd(int a, int b) {
+    return b == 0 ? a : gcd(b, a % b);
+  }
+
+  /**
+   * Read a stream of transactions until its end, printing the wPFI at each
+   * slide of the window.
+   *
+   * @param in the stream, in the format of the transaction files
+   * @throws IOException exception if error while reading the stream.
+   */
+  public void process(InputStream in, boolean hasProbability) throws IOException {
+    byte[] block = new byte[1 << 16];
+
+    TransactionParser parser = new TransactionParser(hasProbability, (items, probabilities, length) -> {
+      if (!hasProbability)
+        generator.fill(window.getNext(), probabilities, 0, length);
+
+      ArrayList<HashSet<wPFIItemset>> wPFI = addTransaction(items, probabilities, length);
+      if (wPFI != null)
+        printWindow(wPFI);
+      return true;
+    });
+
+    int read;
+    while ((read = in.read(block)) > 0)
+      parser.parse(block, 0, read);
+    parser.finish();
+  }
+
+  /**
+   * Add a transaction of the stream to the window.
+   *
+   * @param rawItems      the item ids, as in the stream
+   * @param probabilities the existential probabilities of the items
+   * @param length        the number of items
+   * @return the wPFI of each size if the window slid, otherwise null.
+   */
+  public ArrayList<HashSet<wPFIItemset>> addTransaction(int[] rawItems, double[] probabilities, int length) {
+    if (itemScratch.length < length) {
+      itemScratch = new int[Math.max(length, itemScratch.length * 2)];
+      probabilityScratch = new double[itemScratch.length];
+    }
+
+    long tid = window.getNext();
+    int distinct = 0;
+
+    for (int i = 0; i < length; i++) {
+      int item = denseId(rawItems[i], probabilities[i]);
+
+      if (lastSeen[item] == tid + 1)
+        continue;
+      lastSeen[item] = tid + 1;
+      itemScratch[distinct] = item;
+      probabilityScratch[distinct++] = probabilities[i];
+    }
+    window.add(itemScratch, probabilityScratch, distinct);
+
+    long next = window.getNext();
+    if (next < windowSize || (next - windowSize) % slide != 0)
+      return null;
+
+    releaseItems();
+    return mineWindow();
+  }
+
+  /**
+   * Drop the items that are not in the window, with their weights, once
+   * there are as many of them as items in the window, and give the others
+   * new dense ids.
+   */
+  void releaseItems() {
+    int itemCount = dictionary.size();
+    int live = 0;
+
+    for (int item = 0; item < itemCount; item++) {
+      if (window.count(item) > 0)
+        live++;
+    }
+    if (itemCount - live < Math.max(MIN_RELEASE, live))
+      return;
+
+    int[] rawIds = new int[live];
+    for (int item = 0, i = 0; item < itemCount; item++) {
+      if (window.count(item) > 0)
+        rawIds[i++] = dictionary.rawId(item);
+    }
+    Arrays.sort(rawIds);
+    ItemDictionary liveDictionary = new ItemDictionary(rawIds);
+
+    int[] map = new int[itemCount];
+    int length = Math.max(16, live);
+    wPFIItem[] liveItems = new wPFIItem[length];
+    double[] liveWeights = new double[length];
+
+    for (int item = 0; item < itemCount; item++) {
+      map[item] = window.count(item) > 0 ? liveDictionary.denseId(dictionary.rawId(item)) : -1;
+
+      if (map[item] >= 0) {
+        liveItems[map[item]] = new wPFIItem(map[item], items[item].getProbability());
+        liveWeights[map[item]] = weightTable[item];
+      }
+    }
+    window.remap(map, live);
+
+    HashMap<wPFIItemset, PaneSupports> liveSupports = new HashMap<>();
+    for (HashMap.Entry<wPFIItemset, PaneSupports> entry : paneSupports.entrySet()) {
+      int[] ids = entry.getKey().toArray();
+      boolean inWindow = true;
+
+      for (int i = 0; i < ids.length && inWindow; i++) {
+        ids[i] = map[ids[i]];
+        inWindow = ids[i] >= 0;
+      }
+      if (inWindow)
+        liveSupports.put(wPFIItemset.of(ids, ids.length), entry.getValue());
+    }
+
+    dictionary = liveDictionary;
+    items = liveItems;
+    weightTable = liveWeights;
+    lastSeen = new long[length];
+    paneSupports = liveSupports;
+  }
+
+  private int denseId(int rawId, double probability) {
+    int itemCount = dictionary.size();
+    int item = dictionary.add(rawId);
+
+    if (dictionary.size() > itemCount) {
+      if (item >= items.length) {
+        int length = Math.max(16, items.length * 2);
+        items = Arrays.copyOf(items, length);
+        weightTable = Arrays.copyOf(weightTable, length);
+        lastSeen = Arrays.copyOf(lastSeen, length);
+      }
+      items[item] = new wPFIItem(item, probability);
+      weightTable[item] = weightRandom.nextDouble();
+    }
+    return item;
+  }
+
+  /**
+   * Mine the wPFI of the current window.
+   *
+   * @return the list of the wPFI of each size.
+   */
+  public ArrayList<HashSet<wPFIItemset>> mineWindow() {
+    int minsup = Math.round(msup_ratio * window.size());
+    HashMap<wPFIItemset, Double> supportDict = new HashMap<>();
+    long[] tids = new long[window.size()];
+    double[] products = new double[window.size()];
+
+    HashSet<wPFIItem> windowItems = new HashSet<>();
+    for (int item = 0; item < dictionary.size(); item++) {
+      if (window.count(item) > 0)
+        windowItems.add(items[item]);
+    }
+
+    ArrayList<HashSet<wPFIItemset>> wPFI = new ArrayList<>();
+    HashSet<wPFIItemset> candidateK = new HashSet<>();
+
+    for (wPFIItem item : windowItems)
+      candidateK.add(wPFIItemset.of(item.getId()));
+
+    while (candidateK.size() != 0) {
+      HashSet<wPFIItemset> wPFI_k = new HashSet<>();
+
+      for (wPFIItemset candidate : candidateK) {
+        double candidate_weight = wPFIApriori.itemsetWeight(weightTable, candidate);
+        double candidate_confidence = Pr(supportDict, candidate, tids, products, minsup);
+
+        if (candidate_confidence * candidate_weight >= threshold)
+          wPFI_k.add(candidate);
+      }
+
+      if (wPFI_k.size() == 0)
+        break;
+      wPFI.add(wPFI_k);
+      candidateK = generate(supportDict, wPFI_k, windowItems, minsup);
+    }
+
+    // Only the candidates of this window keep their panes.
+    paneSupports.keySet().retainAll(supportDict.keySet());
+    return wPFI;
+  }
+
+  /**
+   * Calculate the probability that the support of an itemset in the window is
+   * at least minsup, and keep its expected support in supportDict. The panes
+   * that left the window are dropped from the panes of the itemset, the new
+   * panes are counted, and the panes are merged. Without panes, the whole
+   * window is counted.
+   */
+  double Pr(
+    HashMap<wPFIItemset, Double> supportDict,
+    wPFIItemset itemset,
+    long[] tids,
+    double[] products,
+    int minsup
+  ) {
+    long firstPane = window.getFirst() / pane;
+    long endPane = window.getNext() / pane;
+    int capacity = Math.max(1, minsup);
+    SupportDistribution merged;
+
+    if (windowSize / pane > MAX_PANES) {
+      int found = window.intersect(itemset.toArray(), itemset.size(), window.getFirst(), tids, products);
+
+      merged = new SupportDistribution(capacity);
+      for (int j = 0; j < found; j++)
+        merged.add(products[j]);
+    } else
+      merged = paneSupports(itemset, firstPane, endPane, tids, products, capacity);
+    supportDict.put(itemset, merged.getMu());
+
+    if (minsup == 0)
+      return 1.0;
+    if (merged.getSeen() < minsup)
+      return 0.0;
+    return merged.tail(minsup);
+  }
+
+  /**
+   * Get the distribution of the window from the panes of an itemset, after
+   * dropping the panes that left it and counting the new ones.
+   */
+  private SupportDistribution paneSupports(
+    wPFIItemset itemset,
+    long firstPane,
+    long endPane,
+    long[] tids,
+    double[] products,
+    int capacity
+  ) {
+    PaneSupports supports = paneSupports.get(itemset);
+    if (supports == null || supports.capacity != capacity) {
+      supports = new PaneSupports(firstPane, capacity);
+      paneSupports.put(itemset, supports);
+    }
+    while (supports.size() > 0 && supports.nextPane - supports.size() < firstPane)
+      supports.removeOldest();
+    supports.nextPane = Math.max(supports.nextPane, firstPane);
+
+    if (supports.nextPane < endPane) {
+      int found = window.intersect(itemset.toArray(), itemset.size(), supports.nextPane * pane, tids, products);
+      int j = 0;
+
+      while (supports.nextPane < endPane) {
+        SupportDistribution distribution = new SupportDistribution(capacity);
+
+        for (; j < found && tids[j] < (supports.nextPane + 1) * pane; j++)
+          distribution.add(products[j]);
+        supports.add(distribution);
+      }
+    }
+    return supports.merged();
+  }
+
+  /**
+   * Generate the candidates of size k from the wPFI of size k-1, as
+   * wPFIApriori.wPFIAprioriGenerate does.
+   */
+  HashSet<wPFIItemset> generate(
+    HashMap<wPFIItemset, Double> supportDict,
+    HashSet<wPFIItemset> wPFI_K_1,
+    HashSet<wPFIItem> windowItems,
+    int minsup
+  ) {
+    HashSet<wPFIItemset> candidateK = new HashSet<wPFIItemset>();
+    boolean[] inI_ = new boolean[dictionary.size()];
+
+    for (wPFIItemset candidate : wPFI_K_1) {
+      for (int i = 0; i < candidate.size(); i++)
+        inI_[candidate.get(i)] = true;
+    }
+
+    double maxWeight = 0;
+    for (wPFIItem item : windowItems)
+      maxWeight = Math.max(maxWeight, weightTable[item.getId()]);
+    double mu_ = wPFIApriori.calculateMu_(0, window.size(), minsup, threshold, maxWeight);
+
+    for (wPFIItemset candidate : wPFI_K_1) {
+      double argmin = wPFIApriori.minWeightItemset(weightTable, candidate);
+
+      for (wPFIItem item : windowItems) {
+        int id = item.getId();
+
+        if (candidate.contains(id))
+          continue;
+        if (!inI_[id] && weightTable[id] >= argmin)
+          continue;
+        if (wPFIApriori.itemsetWeight(weightTable, candidate, id) < threshold)
+          continue;
+        if (useProbabilityModel && !condition(supportDict, candidate, id, mu_))
+          continue;
+        candidateK.add(candidate.with(id));
+      }
+    }
+    return candidateK;
+  }
+
+  /**
+   * The conditions of Algorithm 3, with the expected supports of the window.
+   */
+  boolean condition(
+    HashMap<wPFIItemset, Double> supportDict,
+    wPFIItemset itemset,
+    int item,
+    double mu_
+  ) {
+    double mu_X = supportDict.get(itemset);
+    double mu_I = supportDict.get(wPFIItemset.of(item));
+
+    if (mu_X < mu_ || mu_I < mu_)
+      return false;
+
+    return mu_X * mu_I >= scale_factor * window.getTransactionSize() * mu_;
+  }
+
+  /**
+   * Print the wPFI of the current window to System.out.
+   */
+  public void printWindow(ArrayList<HashSet<wPFIItemset>> wPFI) {
+    System.out.println("===========================================================");
+    System.out.printf("Window: transactions %d to %d\n", window.getFirst(), window.getNext() - 1);
+
+    for (int k = 0; k < wPFI.size(); k++)
+      System.out.printf("There are\t%d\t size-%d wPFI.\n", wPFI.get(k).size(), k + 1);
+  }
+}